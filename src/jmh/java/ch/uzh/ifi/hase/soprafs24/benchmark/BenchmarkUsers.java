@@ -0,0 +1,49 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+
+/**
+ * Test data shared by the benchmarks: fully populated users as they would be
+ * loaded from the database.
+ */
+final class BenchmarkUsers {
+
+  private BenchmarkUsers() {
+  }
+
+  static User user(long id) {
+    User user = new User();
+    user.setId(id);
+    user.setName("Firstname Lastname " + id);
+    user.setUsername("user" + id);
+    user.setPassword("password" + id);
+    user.setToken("0b7c2d3e-5f61-4a1b-9c8d-" + String.format("%012d", id));
+    user.setStatus(id % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+    user.setCreationDate(new Date(1700000000000L + id));
+    user.setBirthday(new Date(900000000000L + id));
+    return user;
+  }
+
+  static List<User> users(int count) {
+    List<User> users = new ArrayList<>(count);
+    for (long id = 1; id <= count; id++) {
+      users.add(user(id));
+    }
+    return users;
+  }
+
+  static List<UserGetDTO> userGetDTOs(int count) {
+    List<UserGetDTO> userGetDTOs = new ArrayList<>(count);
+    for (User user : users(count)) {
+      userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+    }
+    return userGetDTOs;
+  }
+}
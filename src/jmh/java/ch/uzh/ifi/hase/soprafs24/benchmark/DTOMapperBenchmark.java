@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+
+/**
+ * MapStruct conversions between the User entity and its DTOs, for a single
+ * user and for whole lists as returned by GET /users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DTOMapperBenchmark {
+
+  @Param({ "1000", "100000" })
+  private int userCount;
+
+  private User user;
+
+  private UserPostDTO userPostDTO;
+
+  private List<User> users;
+
+  @Setup
+  public void setup() {
+    user = BenchmarkUsers.user(42);
+    userPostDTO = new UserPostDTO();
+    userPostDTO.setName(user.getName());
+    userPostDTO.setUsername(user.getUsername());
+    userPostDTO.setPassword(user.getPassword());
+    users = BenchmarkUsers.users(userCount);
+  }
+
+  @Benchmark
+  public UserGetDTO entityToUserGetDTO() {
+    return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+  }
+
+  @Benchmark
+  public User userPostDTOToEntity() {
+    return DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public List<UserGetDTO> entityListToUserGetDTOs() {
+    List<UserGetDTO> userGetDTOs = new ArrayList<>(users.size());
+    for (User u : users) {
+      userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(u));
+    }
+    return userGetDTOs;
+  }
+}
@@ -0,0 +1,107 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.exceptions.ApiException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.NotFoundException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.UnauthorizedException;
+
+/**
+ * Cost of an expected error from the throw in the UserService to the bytes of
+ * the response body: a ResponseStatusException with a formatted message and a
+ * stack trace whose body is serialized per request, compared to a new
+ * stackless ApiException and to a copy of an ApiException template, both with
+ * pre-encoded fields. The exception is thrown stackDepth frames deep to mimic
+ * the call stack of a request in Spring MVC.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ErrorPathBenchmark {
+
+  private static final String PATH = "/login";
+
+  private static final ApiException INCORRECT_PASSWORD = new UnauthorizedException("Incorrect Password.");
+
+  @Param({ "10", "100" })
+  private int stackDepth;
+
+  private ObjectMapper objectMapper;
+
+  private long id;
+
+  @Setup
+  public void setup() {
+    objectMapper = Jackson2ObjectMapperBuilder.json().build();
+  }
+
+  @Benchmark
+  public byte[] responseStatusException() throws JsonProcessingException {
+    try {
+      throwAt(stackDepth, () -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+          String.format("User with ID %s was not found", id++)));
+    }
+    catch (ResponseStatusException e) {
+      Map<String, Object> body = new LinkedHashMap<>();
+      body.put("timestamp", new Date());
+      body.put("status", e.getRawStatusCode());
+      body.put("error", e.getStatus().getReasonPhrase());
+      body.put("message", e.getReason());
+      body.put("path", PATH);
+      return objectMapper.writeValueAsBytes(body);
+    }
+    throw new IllegalStateException();
+  }
+
+  @Benchmark
+  public byte[] stacklessApiException() {
+    try {
+      throwAt(stackDepth, () -> new NotFoundException("User with ID " + id++ + " was not found"));
+    }
+    catch (ApiException e) {
+      return e.getBody(PATH);
+    }
+    throw new IllegalStateException();
+  }
+
+  @Benchmark
+  public byte[] templateApiException() {
+    try {
+      throwAt(stackDepth, INCORRECT_PASSWORD::copy);
+    }
+    catch (ApiException e) {
+      return e.getBody(PATH);
+    }
+    throw new IllegalStateException();
+  }
+
+  private static void throwAt(int depth, ExceptionFactory factory) {
+    if (depth == 0) {
+      throw factory.create();
+    }
+    throwAt(depth - 1, factory);
+  }
+
+  @FunctionalInterface
+  private interface ExceptionFactory {
+    RuntimeException create();
+  }
+}
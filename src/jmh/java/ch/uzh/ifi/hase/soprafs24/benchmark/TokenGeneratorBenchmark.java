@@ -0,0 +1,96 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import ch.uzh.ifi.hase.soprafs24.service.SecureTokenGenerator;
+import ch.uzh.ifi.hase.soprafs24.service.TokenGenerator;
+
+/**
+ * Token creation under contention: UUID.randomUUID(), which shares one
+ * SecureRandom between all threads, and one new SecureRandom() per thread,
+ * which on Linux is a NativePRNG whose instances share one global lock,
+ * against the SecureTokenGenerator with one DRBG per thread. Compare the
+ * throughput of the same thread count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TokenGeneratorBenchmark {
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private static final ThreadLocal<SecureRandom> NATIVE_PRNG = ThreadLocal.withInitial(SecureRandom::new);
+
+  private final TokenGenerator tokenGenerator = new SecureTokenGenerator(32);
+
+  @Benchmark
+  @Threads(1)
+  public String uuid1() {
+    return UUID.randomUUID().toString();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String uuid4() {
+    return UUID.randomUUID().toString();
+  }
+
+  @Benchmark
+  @Threads(16)
+  public String uuid16() {
+    return UUID.randomUUID().toString();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String nativePrng1() {
+    return nativePrngToken();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String nativePrng4() {
+    return nativePrngToken();
+  }
+
+  @Benchmark
+  @Threads(16)
+  public String nativePrng16() {
+    return nativePrngToken();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String secureToken1() {
+    return tokenGenerator.generate();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String secureToken4() {
+    return tokenGenerator.generate();
+  }
+
+  @Benchmark
+  @Threads(16)
+  public String secureToken16() {
+    return tokenGenerator.generate();
+  }
+
+  private static String nativePrngToken() {
+    byte[] bytes = new byte[32];
+    NATIVE_PRNG.get().nextBytes(bytes);
+    return ENCODER.encodeToString(bytes);
+  }
+}
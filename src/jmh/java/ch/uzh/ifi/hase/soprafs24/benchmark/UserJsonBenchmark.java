@@ -0,0 +1,51 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+
+/**
+ * Jackson serialization of UserGetDTO lists, i.e. the response body of
+ * GET /users. The ObjectMapper is configured the same way Spring MVC
+ * configures its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserJsonBenchmark {
+
+  @Param({ "1", "1000", "100000" })
+  private int userCount;
+
+  private ObjectWriter listWriter;
+
+  private List<UserGetDTO> userGetDTOs;
+
+  @Setup
+  public void setup() {
+    ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    listWriter = objectMapper.writerFor(objectMapper.getTypeFactory()
+        .constructCollectionType(List.class, UserGetDTO.class));
+    userGetDTOs = BenchmarkUsers.userGetDTOs(userCount);
+  }
+
+  @Benchmark
+  public byte[] serializeUserList() throws JsonProcessingException {
+    return listWriter.writeValueAsBytes(userGetDTOs);
+  }
+}
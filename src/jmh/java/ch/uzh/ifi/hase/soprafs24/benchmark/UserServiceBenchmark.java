@@ -0,0 +1,110 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import ch.uzh.ifi.hase.soprafs24.Application;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+
+/**
+ * UserService against an in-memory H2 database, with the full Spring context
+ * but without the web layer. createUser is run with the uniqueness filter
+ * switched on and off to compare registration throughput with and without
+ * the uniqueness queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UserServiceBenchmark {
+
+  @Param({ "true", "false" })
+  private boolean uniquenessFilter;
+
+  // users in the table before the benchmark starts
+  @Param({ "10000" })
+  private int existingUsers;
+
+  private final AtomicLong sequence = new AtomicLong();
+
+  private long[] existingIds;
+
+  private ConfigurableApplicationContext context;
+
+  private UserService userService;
+
+  @Setup
+  public void setup() {
+    context = new SpringApplicationBuilder(Application.class)
+        .web(WebApplicationType.NONE)
+        .properties(
+            "spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+            "users.uniqueness-filter.enabled=" + uniquenessFilter,
+            "logging.level.root=WARN")
+        .run();
+    userService = context.getBean(UserService.class);
+
+    existingIds = new long[existingUsers];
+    for (int i = 0; i < existingUsers; i++) {
+      existingIds[i] = userService.createUser(newUser()).getId();
+    }
+
+    User loginUser = new User();
+    loginUser.setName("login name");
+    loginUser.setUsername("login");
+    loginUser.setPassword("password");
+    userService.createUser(loginUser);
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public User createUser() {
+    return userService.createUser(newUser());
+  }
+
+  @Benchmark
+  public User logIn() {
+    User credentials = new User();
+    credentials.setUsername("login");
+    credentials.setPassword("password");
+    return userService.logIn(credentials);
+  }
+
+  @Benchmark
+  public User findById() {
+    return userService.findById(existingIds[ThreadLocalRandom.current().nextInt(existingIds.length)]);
+  }
+
+  @Benchmark
+  public UserProfile getUserProfile() {
+    return userService.getUserProfile(existingIds[ThreadLocalRandom.current().nextInt(existingIds.length)]);
+  }
+
+  private User newUser() {
+    long n = sequence.incrementAndGet();
+    User user = new User();
+    user.setName("name " + n);
+    user.setUsername("username" + n);
+    user.setPassword("password");
+    return user;
+  }
+}
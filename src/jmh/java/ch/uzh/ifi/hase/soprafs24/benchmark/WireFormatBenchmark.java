@@ -0,0 +1,83 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+
+/**
+ * Encoding and decoding of UserGetDTO lists (the body of GET /users, a single
+ * user for userCount 1) as JSON, Smile and CBOR, with ObjectMappers built the
+ * way the message converters build theirs. The size of each body is printed
+ * once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WireFormatBenchmark {
+
+  @Param({ "json", "smile", "cbor" })
+  private String format;
+
+  @Param({ "1", "1000", "100000" })
+  private int userCount;
+
+  private ObjectWriter listWriter;
+
+  private ObjectReader listReader;
+
+  private List<UserGetDTO> userGetDTOs;
+
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws IOException {
+    ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().factory(factory(format)).build();
+    listWriter = objectMapper.writerFor(objectMapper.getTypeFactory()
+        .constructCollectionType(List.class, UserGetDTO.class));
+    listReader = objectMapper.readerFor(objectMapper.getTypeFactory()
+        .constructCollectionType(List.class, UserGetDTO.class));
+    userGetDTOs = BenchmarkUsers.userGetDTOs(userCount);
+    encoded = listWriter.writeValueAsBytes(userGetDTOs);
+    System.out.printf("%n%s, %d users: %d bytes%n", format, userCount, encoded.length);
+  }
+
+  @Benchmark
+  public byte[] encode() throws IOException {
+    return listWriter.writeValueAsBytes(userGetDTOs);
+  }
+
+  @Benchmark
+  public List<UserGetDTO> decode() throws IOException {
+    return listReader.readValue(encoded);
+  }
+
+  private static JsonFactory factory(String format) {
+    switch (format) {
+      case "smile":
+        return new SmileFactory();
+      case "cbor":
+        return new CBORFactory();
+      default:
+        return new JsonFactory();
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package ch.uzh.ifi.hase.soprafs24.constant;
+
+/**
+ * The properties of a user a client can select with ?fields=. The property is
+ * both the attribute of the User entity and the name in the JSON response.
+ * The password and the token are deliberately not among them.
+ */
+public enum UserField {
+  ID("id"), NAME("name"), USERNAME("username"), STATUS("status"), CREATION_DATE("creationDate"),
+  BIRTHDAY("birthday");
+
+  private final String property;
+
+  UserField(String property) {
+    this.property = property;
+  }
+
+  public String getProperty() {
+    return property;
+  }
+
+  /**
+   * @return the field with the given property name, or null if there is none
+   */
+  public static UserField fromProperty(String property) {
+    for (UserField field : values()) {
+      if (field.property.equals(property)) {
+        return field;
+      }
+    }
+    return null;
+  }
+}
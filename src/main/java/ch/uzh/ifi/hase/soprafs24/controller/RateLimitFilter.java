@@ -0,0 +1,198 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.exceptions.ApiException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.PayloadTooLargeException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.TooManyRequestsException;
+import ch.uzh.ifi.hase.soprafs24.service.RateLimiter;
+
+/**
+ * Rate Limit Filter
+ * Applies the RateLimiter to POST /login, POST /users and POST /users/bulk
+ * before the request reaches the UserController, so throttled requests never
+ * cost a query. For logins the limit per address is checked first, only then
+ * the body is read here once to find the username and handed on to the
+ * controller unchanged. That body is capped at
+ * users.rate-limit.login.max-body-size bytes, larger ones are answered with
+ * 413 instead of being buffered.
+ * Behind a proxy (App Engine) the remote address is the proxy's, so the
+ * client address is taken from the header the proxy sets, configured as
+ * users.rate-limit.client-address-header. Only configure a header that the
+ * proxy overwrites, otherwise clients can pick their own address.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final RateLimiter rateLimiter;
+
+    private final ObjectMapper objectMapper;
+
+    private final String clientAddressHeader;
+
+    private final int maxLoginBodySize;
+
+    private final ApiException loginBodyTooLarge;
+
+    RateLimitFilter(RateLimiter rateLimiter, ObjectMapper objectMapper,
+                    @Value("${users.rate-limit.client-address-header:}") String clientAddressHeader,
+                    @Value("${users.rate-limit.login.max-body-size:4096}") int maxLoginBodySize) {
+        this.rateLimiter = rateLimiter;
+        this.objectMapper = objectMapper;
+        this.clientAddressHeader = clientAddressHeader;
+        this.maxLoginBodySize = maxLoginBodySize;
+        this.loginBodyTooLarge = new PayloadTooLargeException(
+                "A login must not be larger than " + maxLoginBodySize + " bytes.");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!HttpMethod.POST.matches(request.getMethod())) {
+            return true;
+        }
+        String path = path(request);
+        return !"/login".equals(path) && !"/users".equals(path) && !"/users/bulk".equals(path);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        HttpServletRequest checkedRequest = request;
+        String path = path(request);
+        String clientAddress = clientAddress(request);
+        try {
+            if ("/login".equals(path)) {
+                rateLimiter.checkLoginAddress(clientAddress);
+                // one byte more than allowed tells a body at the limit from a larger one
+                byte[] body = request.getContentLengthLong() > maxLoginBodySize ? null
+                        : request.getInputStream().readNBytes(maxLoginBodySize + 1);
+                if (body == null || body.length > maxLoginBodySize) {
+                    writeError(request, response, loginBodyTooLarge);
+                    return;
+                }
+                String username = readUsername(body);
+                if (username != null) {
+                    rateLimiter.checkLoginUsername(username);
+                }
+                checkedRequest = new CachedBodyRequest(request, body);
+            }
+            else if ("/users/bulk".equals(path)) {
+                rateLimiter.checkImport(clientAddress);
+            }
+            else {
+                rateLimiter.checkRegistration(clientAddress);
+            }
+        }
+        catch (TooManyRequestsException e) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            writeError(request, response, e);
+            return;
+        }
+        filterChain.doFilter(checkedRequest, response);
+    }
+
+    // the servlet path is empty if the DispatcherServlet is not the one mapped to "/" (e.g. in MockMvc)
+    private static String path(HttpServletRequest request) {
+        return UrlPathHelper.defaultInstance.getPathWithinApplication(request);
+    }
+
+    private static void writeError(HttpServletRequest request, HttpServletResponse response, ApiException e)
+            throws IOException {
+        response.setStatus(e.getRawStatusCode());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getOutputStream().write(e.getBody(request.getRequestURI()));
+    }
+
+    private String clientAddress(HttpServletRequest request) {
+        if (!clientAddressHeader.isEmpty()) {
+            String address = request.getHeader(clientAddressHeader);
+            if (address != null && !address.isBlank()) {
+                return address.trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    // a body that is not valid JSON is only limited per address, the controller rejects it anyway
+    private String readUsername(byte[] body) {
+        try {
+            JsonNode username = objectMapper.readTree(body).path("username");
+            return username.isTextual() ? username.asText() : null;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return input.read(buffer, offset, length);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            Charset charset = encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+            return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+    }
+}
@@ -1,23 +1,52 @@
 package ch.uzh.ifi.hase.soprafs24.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping; // To edit
 import org.springframework.web.bind.annotation.RequestBody; // to pass method parameters
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserBatchGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserChangesGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserFieldsPageGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserImportResultGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPageGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs24.service.UserBatch;
+import ch.uzh.ifi.hase.soprafs24.service.UserChanges;
+import ch.uzh.ifi.hase.soprafs24.service.UserImportResult;
+import ch.uzh.ifi.hase.soprafs24.service.UserJsonCache;
 import ch.uzh.ifi.hase.soprafs24.service.UserService;
 
 /**
@@ -28,21 +57,179 @@ import ch.uzh.ifi.hase.soprafs24.service.UserService;
 @RestController
 public class UserController {
 
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+
+    private static final String SMILE_SUFFIX = "-smile";
+
+    private static final String CBOR_SUFFIX = "-cbor";
+
     private final UserService userService;
 
-    UserController(UserService userService) {
+    private final ObjectMapper objectMapper;
+
+    private final UserJsonCache userJsonCache;
+
+    UserController(UserService userService, ObjectMapper objectMapper, UserJsonCache userJsonCache) {
         this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.userJsonCache = userJsonCache;
     }
 
+    // no @ResponseStatus here, it would turn the 304 of a matching If-None-Match into a 200
     @GetMapping("/users")
+    @ResponseBody
+    public List<UserGetDTO> getAllUsers(WebRequest request, HttpServletResponse response) throws IOException {
+        if (checkNotModified(request, response, userService.getUsersETag())) {
+            return null;
+        }
+        List<UserProfile> userProfiles = userService.getUserProfiles();
+        if (prefersJson(request)) {
+            // the array is put together from the cached JSON of every user, nothing is mapped or serialized again
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            OutputStream outputStream = response.getOutputStream();
+            outputStream.write('[');
+            for (int i = 0; i < userProfiles.size(); i++) {
+                if (i > 0) {
+                    outputStream.write(',');
+                }
+                outputStream.write(toUserJson(userProfiles.get(i)));
+            }
+            outputStream.write(']');
+            return null;
+        }
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(userProfiles.size());
+
+        for (UserProfile userProfile : userProfiles) {
+            userGetDTOs.add(toUserGetDTO(userProfile));
+        }
+        return userGetDTOs;
+    }
+
+    // GET /users?limit=50&after=1234 -> keyset page, pass nextCursor as "after" for the next one
+    @GetMapping(value = "/users", params = "limit")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserPageGetDTO getUserPage(@RequestParam("limit") int limit,
+                                      @RequestParam(value = "after", required = false) Long after) {
+        List<UserProfile> userProfiles = userService.getUserProfilesAfter(after, limit);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(userProfiles.size());
+
+        for (UserProfile userProfile : userProfiles) {
+            userGetDTOs.add(toUserGetDTO(userProfile));
+        }
+
+        UserPageGetDTO page = new UserPageGetDTO();
+        page.setUsers(userGetDTOs);
+        if (userProfiles.size() == limit) {
+            page.setNextCursor(userProfiles.get(userProfiles.size() - 1).getId());
+        }
+        return page;
+    }
+
+    // GET /users?fields=id,username,status -> only these properties of every user, selected as such from the table
+    @GetMapping(value = "/users", params = { "fields", "!limit", "!ids" })
+    @ResponseBody
+    public List<Map<String, Object>> getAllUserFields(@RequestParam("fields") String fields, WebRequest request,
+                                                      HttpServletResponse response) {
+        if (checkNotModified(request, response, userService.getUsersETag())) {
+            return null;
+        }
+        return userService.getUserFields(fields);
+    }
+
+    // GET /users?limit=50&after=1234&fields=id,username -> keyset page with only these properties
+    @GetMapping(value = "/users", params = { "limit", "fields" })
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserFieldsPageGetDTO getUserFieldsPage(@RequestParam("limit") int limit,
+                                                  @RequestParam(value = "after", required = false) Long after,
+                                                  @RequestParam("fields") String fields) {
+        List<Map<String, Object>> users = userService.getUserFieldsAfter(fields, after, limit);
+
+        UserFieldsPageGetDTO page = new UserFieldsPageGetDTO();
+        page.setUsers(users);
+        if (users.size() == limit) {
+            page.setNextCursor((Long) users.get(users.size() - 1).get("id"));
+        }
+        return page;
+    }
+
+    // GET /users?ids=3,1,2 -> these users in this order with one IN query, plus the ids that do not exist
+    @GetMapping(value = "/users", params = { "ids", "!limit" })
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserBatchGetDTO getUsersByIds(@RequestParam("ids") List<Long> ids) {
+        UserBatch batch = userService.getUserProfilesByIds(ids);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(batch.getUsers().size());
+
+        for (UserProfile userProfile : batch.getUsers()) {
+            userGetDTOs.add(toUserGetDTO(userProfile));
+        }
+
+        UserBatchGetDTO batchGetDTO = new UserBatchGetDTO();
+        batchGetDTO.setUsers(userGetDTOs);
+        batchGetDTO.setMissingIds(batch.getMissingIds());
+        return batchGetDTO;
+    }
+
+    // GET /users/changes?since=<cursor> -> only the users written since the last sync, plus the next cursor
+    @GetMapping("/users/changes")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserChangesGetDTO getUserChanges(@RequestParam(value = "since", required = false) String since,
+                                            @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        UserChanges changes = userService.getUserChanges(since, limit);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(changes.getUsers().size());
+
+        for (UserProfile userProfile : changes.getUsers()) {
+            userGetDTOs.add(toUserGetDTO(userProfile));
+        }
+
+        UserChangesGetDTO changesGetDTO = new UserChangesGetDTO();
+        changesGetDTO.setUsers(userGetDTOs);
+        changesGetDTO.setCursor(changes.getCursor());
+        changesGetDTO.setHasMore(changes.isHasMore());
+        return changesGetDTO;
+    }
+
+    // GET /users?stream=true -> same JSON array as GET /users, written row by row while the table is read
+    @GetMapping(value = "/users", params = { "stream=true", "!limit", "!fields", "!ids" })
+    public void streamAllUsers(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+
+        // let the servlet buffer decide when to flush instead of flushing after every row
+        ObjectWriter writer = objectMapper.writerFor(UserGetDTO.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            userService.forEachUserProfile(userProfile -> {
+                try {
+                    writer.writeValue(generator, toUserGetDTO(userProfile));
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    // GET /users/search?q=ali&limit=20 -> users whose username or name starts with "ali", best matches first
+    @GetMapping("/users/search")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public List<UserGetDTO> getAllUsers() {
-        List<User> users = userService.getUsers();
-        List<UserGetDTO> userGetDTOs = new ArrayList<>();
+    public List<UserGetDTO> searchUsers(@RequestParam("q") String query,
+                                        @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        List<UserProfile> userProfiles = userService.searchUserProfiles(query, limit);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(userProfiles.size());
 
-        for (User user : users) {
-            userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+        for (UserProfile userProfile : userProfiles) {
+            userGetDTOs.add(toUserGetDTO(userProfile));
         }
         return userGetDTOs;
     }
@@ -53,7 +240,29 @@ public class UserController {
     public UserGetDTO createUser(@RequestBody UserPostDTO userPostDTO) {
         User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
         User createdUser = userService.createUser(userInput);
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser);
+        return toUserGetDTO(createdUser);
+    }
+
+    // POST /users/bulk with the token of /login -> creates a whole cohort at once and reports the outcome per row
+    @PostMapping("/users/bulk")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UserImportResultGetDTO> importUsers(
+            @RequestHeader(value = "Authorization", required = false) String authorization,
+            @RequestBody List<UserPostDTO> userPostDTOs) {
+        // only logged in users may create users in bulk, a missing token is a 401 like an invalid one
+        userService.authenticate(bearerToken(authorization));
+        List<User> userInputs = new ArrayList<>(userPostDTOs.size());
+        for (UserPostDTO userPostDTO : userPostDTOs) {
+            userInputs.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+        }
+
+        List<UserImportResult> results = userService.importUsers(userInputs);
+        List<UserImportResultGetDTO> resultGetDTOs = new ArrayList<>(results.size());
+        for (UserImportResult result : results) {
+            resultGetDTOs.add(DTOMapper.INSTANCE.convertUserImportResultToGetDTO(result));
+        }
+        return resultGetDTOs;
     }
 
     @PostMapping("/login")
@@ -62,32 +271,171 @@ public class UserController {
     public UserGetDTO loginUser(@RequestBody UserPostDTO loginUserPostDTO) {
         User userInput = DTOMapper.INSTANCE.convertLoginUserPostDTOtoEntity(loginUserPostDTO);
         User userData = userService.logIn(userInput);
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(userData);
+        return toLoginUserGetDTO(userData);
     }
 
     @GetMapping(value = "/users/{id}")
     @ResponseBody
-    public UserGetDTO getUserbyUserID(@PathVariable("id") long id) {
-        User user = userService.findById(id);
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+    public UserGetDTO getUserbyUserID(@PathVariable("id") long id, WebRequest request, HttpServletResponse response)
+            throws IOException {
+        if (checkNotModified(request, response, userService.getUserETag(id))) {
+            return null;
+        }
+        UserProfile userProfile = userService.getUserProfile(id);
+        if (prefersJson(request)) {
+            byte[] json = toUserJson(userProfile);
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setContentLength(json.length);
+            response.getOutputStream().write(json);
+            return null;
+        }
+        return toUserGetDTO(userProfile);
     }
 
-    @PutMapping(value = "/logout/{id}")
+    // GET /users/1?fields=username,status -> only these properties of the user
+    @GetMapping(value = "/users/{id}", params = "fields")
     @ResponseBody
-    public UserGetDTO logoutUser(@PathVariable("id") Long id) {
+    public Map<String, Object> getUserFieldsByUserID(@PathVariable("id") long id, @RequestParam("fields") String fields,
+                                                     WebRequest request, HttpServletResponse response) {
+        if (checkNotModified(request, response, userService.getUserETag(id))) {
+            return null;
+        }
+        return userService.getUserFields(id, fields);
+    }
+
+    @PutMapping(value = "/logout/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void logoutUser(@PathVariable("id") Long id) {
        User userToLogout = userService.findById(id);
         userService.logOut(userToLogout);
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(userToLogout);
+    }
+
+    // PUT /heartbeat with the token of /login -> keeps the session alive, idle sessions are logged out
+    @PutMapping(value = "/heartbeat")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void heartbeat(@RequestHeader("Authorization") String authorization) {
+        userService.heartbeat(bearerToken(authorization));
     }
 
     @PutMapping(value = "/users/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     @ResponseBody
-    public void editUser(@RequestBody UserPutDTO editUserPutDTO, @PathVariable("id") Long id) {
+    public void editUser(@RequestBody UserPutDTO editUserPutDTO, @PathVariable("id") Long id,
+                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                         HttpServletResponse response) {
         User editUser = DTOMapper.INSTANCE.convertEditUserPutDTOtoEntity(editUserPutDTO);
         editUser.setId(id);
 
-        userService.editUserbyUserID(editUser);
+        // an ETag of the Smile or CBOR representation names the same version of the user
+        User editedUser = userService.editUserbyUserID(editUser, withoutRepresentation(ifMatch));
+        // the new ETag, so the client can send its next edit without reading the user again
+        response.setHeader(HttpHeaders.ETAG, userService.getUserETag(editedUser));
+    }
+
+    // PATCH /users/{id} -> changes only the given fields with a single UPDATE, without reading the user first
+    @PatchMapping(value = "/users/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void patchUser(@RequestBody UserPutDTO userPutDTO, @PathVariable("id") Long id) {
+        User patchUser = DTOMapper.INSTANCE.convertEditUserPutDTOtoEntity(userPutDTO);
+        patchUser.setId(id);
+
+        userService.patchUserbyUserID(patchUser);
+    }
+
+    // JSON, Smile and CBOR bodies of the same version differ byte for byte, so each gets its own strong ETag
+    // and caches are told that the body depends on the Accept header
+    private static boolean checkNotModified(WebRequest request, HttpServletResponse response, String eTag) {
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        String suffix = representationSuffix(request);
+        if (eTag != null && !suffix.isEmpty()) {
+            eTag = eTag.substring(0, eTag.length() - 1) + suffix + '"';
+        }
+        return request.checkNotModified(eTag);
+    }
+
+    // the representation the message converters pick, in their order: JSON (also for */*), Smile, CBOR
+    private static String representationSuffix(WebRequest request) {
+        List<MediaType> acceptedTypes;
+        try {
+            acceptedTypes = MediaType.parseMediaTypes(request.getHeader(HttpHeaders.ACCEPT));
+        }
+        catch (InvalidMediaTypeException e) {
+            return "";
+        }
+        MediaType.sortBySpecificityAndQuality(acceptedTypes);
+        for (MediaType acceptedType : acceptedTypes) {
+            if (acceptedType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                return "";
+            }
+            if (acceptedType.isCompatibleWith(APPLICATION_SMILE)) {
+                return SMILE_SUFFIX;
+            }
+            if (acceptedType.isCompatibleWith(MediaType.APPLICATION_CBOR)) {
+                return CBOR_SUFFIX;
+            }
+        }
+        return "";
+    }
+
+    private static String withoutRepresentation(String eTag) {
+        if (eTag == null) {
+            return null;
+        }
+        for (String suffix : List.of(SMILE_SUFFIX, CBOR_SUFFIX)) {
+            if (eTag.endsWith(suffix + '"')) {
+                return eTag.substring(0, eTag.length() - suffix.length() - 1) + '"';
+            }
+        }
+        return eTag;
+    }
+
+    // the cached JSON only serves clients that take JSON, Smile and CBOR still go through the message converters
+    private static boolean prefersJson(WebRequest request) {
+        List<MediaType> acceptedTypes;
+        try {
+            acceptedTypes = MediaType.parseMediaTypes(request.getHeader(HttpHeaders.ACCEPT));
+        }
+        catch (InvalidMediaTypeException e) {
+            // let the message converters reject it as usual
+            return false;
+        }
+        if (acceptedTypes.isEmpty()) {
+            return true;
+        }
+        MediaType.sortBySpecificityAndQuality(acceptedTypes);
+        return acceptedTypes.get(0).includes(MediaType.APPLICATION_JSON);
+    }
+
+    private static String bearerToken(String authorization) {
+        return authorization != null && authorization.startsWith(BEARER_PREFIX)
+                ? authorization.substring(BEARER_PREFIX.length()) : authorization;
+    }
+
+    private byte[] toUserJson(UserProfile userProfile) {
+        return userJsonCache.get(userProfile, userService.getPresence(userProfile.getId()));
+    }
+
+    // the PresenceRegistry knows the status of users who logged in or out more recently than the database
+    private UserGetDTO toUserGetDTO(User user) {
+        return withPresence(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user), user.getId());
+    }
+
+    // the only answer that carries the token of the session
+    private UserGetDTO toLoginUserGetDTO(User user) {
+        return withPresence(DTOMapper.INSTANCE.convertEntityToLoginUserGetDTO(user), user.getId());
+    }
+
+    private UserGetDTO toUserGetDTO(UserProfile userProfile) {
+        return withPresence(DTOMapper.INSTANCE.convertUserProfileToUserGetDTO(userProfile), userProfile.getId());
+    }
+
+    private UserGetDTO withPresence(UserGetDTO userGetDTO, Long userId) {
+        UserStatus status = userService.getPresence(userId);
+        if (status != null) {
+            userGetDTO.setStatus(status);
+        }
+        return userGetDTO;
     }
 
 }
@@ -0,0 +1,29 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import ch.uzh.ifi.hase.soprafs24.service.UserEventBroadcaster;
+
+/**
+ * User Event Controller
+ * Push channel for clients that want to follow changes of users (created,
+ * edited, logged in/out) instead of polling GET /users.
+ */
+@RestController
+public class UserEventController {
+
+    private final UserEventBroadcaster userEventBroadcaster;
+
+    UserEventController(UserEventBroadcaster userEventBroadcaster) {
+        this.userEventBroadcaster = userEventBroadcaster;
+    }
+
+    // GET /users/events -> one Server-Sent Event per change, the event name is the UserEventType
+    @GetMapping(value = "/users/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe() {
+        return userEventBroadcaster.subscribe();
+    }
+}
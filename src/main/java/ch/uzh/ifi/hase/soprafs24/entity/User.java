@@ -3,11 +3,20 @@ package ch.uzh.ifi.hase.soprafs24.entity;
 import java.io.Serializable;
 import java.util.Date; //Needed to store creation date // and birthday
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Version;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 
@@ -20,18 +29,30 @@ import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unqiue across the database -> composes
  * the primary key
+ * - @DynamicUpdate -> updates only write the changed columns, so saving a
+ * profile never overwrites a status written by the PresenceRegistry
+ * - @Cacheable -> users are kept in the second-level cache region "user"
+ * - changeVersion -> set by every write from the ChangeVersionClock, indexed
+ * for GET /users/changes
+ * - @Version -> optimistic locking, also the base of the ETag of a user
  */
 @Entity
-@Table(name = "USER")
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user")
+@Table(name = "USER", indexes = @Index(name = "idx_user_change_version", columnList = "changeVersion"))
 public class User implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  // pooled sequence: one sequence call hands out the next 50 ids, which lets
+  // Hibernate batch the INSERTs of a bulk import
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+  @SequenceGenerator(name = "user_seq", sequenceName = "user_seq", allocationSize = 50)
   private Long id;
 
-  @Column
+  @Column(unique = true)
   private String name;
 
   @Column(nullable = false, unique = true)
@@ -52,6 +73,12 @@ public class User implements Serializable {
   @Column
   private Date birthday;
 
+  @Column(nullable = false)
+  private long changeVersion;
+
+  @Version
+  private long version;
+
   public Long getId() {
     return id;
   }
@@ -110,4 +137,20 @@ public class User implements Serializable {
   public void setBirthday(Date birthday) {
     this.birthday = birthday;
   }
+
+  public long getChangeVersion() {
+    return changeVersion;
+  }
+
+  public void setChangeVersion(long changeVersion) {
+    this.changeVersion = changeVersion;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public void setVersion(long version) {
+    this.version = version;
+  }
 }
@@ -0,0 +1,85 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * Base of the expected errors of the API (unknown user, wrong password,
+ * duplicate username, ...). These are part of normal operation, so they are
+ * made cheap to throw: no stack trace is captured and the status, error and
+ * message of the JSON error body are encoded once when the exception is
+ * created. Only the timestamp and the path are added per response, so the
+ * body has the same fields as Spring's default error body.
+ * Errors without request specific details are kept as templates, every throw
+ * gets its own copy() that shares the encoded fields. A thrown instance is
+ * never shared, so suppressed exceptions or a cause added by a caller stay
+ * with that one request.
+ * The GlobalExceptionAdvice writes the body.
+ */
+public class ApiException extends ResponseStatusException {
+
+  // the format Jackson writes the timestamp of Spring's error body in
+  private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSxxx");
+
+  private static final byte[] TIMESTAMP_PREFIX = "{\"timestamp\":\"".getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] PATH_PREFIX = ",\"path\":\"".getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] SUFFIX = "\"}".getBytes(StandardCharsets.UTF_8);
+
+  // "status":...,"error":...,"message":... between the timestamp and the path
+  private final byte[] fields;
+
+  public ApiException(HttpStatus status, String reason) {
+    super(status, reason);
+    this.fields = ("\",\"status\":" + status.value()
+        + ",\"error\":\"" + status.getReasonPhrase()
+        + "\",\"message\":\"" + new String(JsonStringEncoder.getInstance().quoteAsString(reason)) + "\"")
+        .getBytes(StandardCharsets.UTF_8);
+  }
+
+  protected ApiException(ApiException template) {
+    super(template.getStatus(), template.getReason());
+    this.fields = template.fields;
+  }
+
+  /**
+   * @return a new instance with the status, reason and encoded body of this
+   *         one, to be thrown instead of this (shared) template
+   */
+  public ApiException copy() {
+    return new ApiException(this);
+  }
+
+  /**
+   * @param path the path of the request that failed
+   * @return the UTF-8 encoded JSON error body
+   */
+  public byte[] getBody(String path) {
+    byte[] timestamp = OffsetDateTime.now(ZoneOffset.UTC).format(TIMESTAMP_FORMAT).getBytes(StandardCharsets.UTF_8);
+    byte[] encodedPath = JsonStringEncoder.getInstance().quoteAsUTF8(path);
+    ByteArrayOutputStream body = new ByteArrayOutputStream(TIMESTAMP_PREFIX.length + timestamp.length
+        + fields.length + PATH_PREFIX.length + encodedPath.length + SUFFIX.length);
+    body.writeBytes(TIMESTAMP_PREFIX);
+    body.writeBytes(timestamp);
+    body.writeBytes(fields);
+    body.writeBytes(PATH_PREFIX);
+    body.writeBytes(encodedPath);
+    body.writeBytes(SUFFIX);
+    return body.toByteArray();
+  }
+
+  // expected errors are identified by their type and reason, a stack trace would only cost time
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
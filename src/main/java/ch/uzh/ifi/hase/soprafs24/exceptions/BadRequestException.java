@@ -0,0 +1,13 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * 400 answers for invalid input.
+ */
+public class BadRequestException extends ApiException {
+
+  public BadRequestException(String reason) {
+    super(HttpStatus.BAD_REQUEST, reason);
+  }
+}
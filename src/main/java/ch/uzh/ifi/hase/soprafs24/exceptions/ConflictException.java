@@ -0,0 +1,13 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * 409 answers for usernames and names that are already taken.
+ */
+public class ConflictException extends ApiException {
+
+  public ConflictException(String reason) {
+    super(HttpStatus.CONFLICT, reason);
+  }
+}
@@ -1,10 +1,16 @@
 package ch.uzh.ifi.hase.soprafs24.exceptions;
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.transaction.TransactionSystemException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -15,22 +21,59 @@ import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 
 @ControllerAdvice(annotations = RestController.class)
 public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
 
   private final Logger log = LoggerFactory.getLogger(GlobalExceptionAdvice.class);
 
+  private final Map<Integer, Counter> errorCounters = new ConcurrentHashMap<>();
+
   @ExceptionHandler(value = { IllegalArgumentException.class, IllegalStateException.class })
   protected ResponseEntity<Object> handleConflict(RuntimeException ex, WebRequest request) {
     String bodyOfResponse = "This should be application specific";
     return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
   }
 
+  // counts every error by status (409 = conflicts, 401 = failed logins, ...) and
+  // then answers exactly like Spring's default ResponseStatusExceptionResolver would
+  @ExceptionHandler(ResponseStatusException.class)
+  public void handleResponseStatusException(ResponseStatusException ex, HttpServletResponse response) throws IOException {
+    errorCounter(ex.getRawStatusCode()).increment();
+    ex.getResponseHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+    response.sendError(ex.getRawStatusCode(), ex.getReason());
+  }
+
+  // the expected errors skip the error page dispatch and write their pre-built body directly
+  @ExceptionHandler(ApiException.class)
+  public void handleApiException(ApiException ex, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    errorCounter(ex.getRawStatusCode()).increment();
+    ex.getResponseHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+    byte[] body = ex.getBody(request.getRequestURI());
+    response.setStatus(ex.getRawStatusCode());
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
   @ExceptionHandler(TransactionSystemException.class)
-  public ResponseStatusException handleTransactionSystemException(Exception ex, HttpServletRequest request) {
+  public void handleTransactionSystemException(Exception ex, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     log.error("Request: {} raised {}", request.getRequestURL(), ex);
-    return new ResponseStatusException(HttpStatus.CONFLICT, ex.getMessage(), ex);
+    handleApiException(new ConflictException(String.valueOf(ex.getMessage())), request, response);
+  }
+
+  // two writes to the same user raced and this one lost, the client can reload and retry
+  @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+  public void handleOptimisticLockingFailure(ObjectOptimisticLockingFailureException ex, HttpServletRequest request,
+                                            HttpServletResponse response) throws IOException {
+    handleApiException(new ConflictException("The user was modified concurrently, reload it and try again."), request,
+        response);
   }
 
   // Keep this one disable for all testing purposes -> it shows more detail with
@@ -40,4 +83,8 @@ public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
     log.error("Default Exception Handler -> caught:", ex);
     return new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, ex.getMessage(), ex);
   }
-}
\ No newline at end of file
+
+  private Counter errorCounter(int status) {
+    return errorCounters.computeIfAbsent(status, key -> Metrics.counter("user.errors", "status", String.valueOf(key)));
+  }
+}
@@ -0,0 +1,13 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * 404 answers for users that do not exist.
+ */
+public class NotFoundException extends ApiException {
+
+  public NotFoundException(String reason) {
+    super(HttpStatus.NOT_FOUND, reason);
+  }
+}
@@ -0,0 +1,13 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * 413 answers for request bodies larger than an endpoint accepts.
+ */
+public class PayloadTooLargeException extends ApiException {
+
+  public PayloadTooLargeException(String reason) {
+    super(HttpStatus.PAYLOAD_TOO_LARGE, reason);
+  }
+}
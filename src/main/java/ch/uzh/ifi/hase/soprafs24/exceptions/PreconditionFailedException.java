@@ -0,0 +1,13 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * 412 answers for conditional writes whose If-Match no longer matches.
+ */
+public class PreconditionFailedException extends ApiException {
+
+  public PreconditionFailedException(String reason) {
+    super(HttpStatus.PRECONDITION_FAILED, reason);
+  }
+}
@@ -0,0 +1,32 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+/**
+ * 429 answer of the rate limiter, tells the client with a Retry-After header
+ * when the next request will be accepted again.
+ */
+public class TooManyRequestsException extends ApiException {
+
+  private final long retryAfterSeconds;
+
+  public TooManyRequestsException(Duration retryAfter) {
+    super(HttpStatus.TOO_MANY_REQUESTS, "Too many requests, please try again later.");
+    // Retry-After only takes whole seconds, round up so the client does not come back too early
+    this.retryAfterSeconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  @Override
+  public HttpHeaders getResponseHeaders() {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    return headers;
+  }
+}
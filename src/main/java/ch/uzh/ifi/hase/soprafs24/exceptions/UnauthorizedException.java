@@ -0,0 +1,13 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * 401 answers for missing or wrong credentials and tokens.
+ */
+public class UnauthorizedException extends ApiException {
+
+  public UnauthorizedException(String reason) {
+    super(HttpStatus.UNAUTHORIZED, reason);
+  }
+}
@@ -0,0 +1,34 @@
+package ch.uzh.ifi.hase.soprafs24.metrics;
+
+import org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The aspects that time the UserService and the repositories. Only active if
+ * there is a MeterRegistry, so test slices such as @WebMvcTest and
+ * @DataJpaTest, which do not configure metrics, start without them.
+ * Registered as an auto-configuration (META-INF/spring.factories) so the
+ * condition is evaluated after Actuator has created the registry.
+ */
+@Configuration(proxyBeanMethods = false)
+@AutoConfigureAfter(CompositeMeterRegistryAutoConfiguration.class)
+@ConditionalOnBean(MeterRegistry.class)
+public class MetricsConfiguration {
+
+  // makes @Timed work on arbitrary beans (e.g. the UserService), not only on controllers
+  @Bean
+  public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+    return new TimedAspect(meterRegistry);
+  }
+
+  @Bean
+  public RepositoryMetricsAspect repositoryMetricsAspect(MeterRegistry meterRegistry) {
+    return new RepositoryMetricsAspect(meterRegistry);
+  }
+}
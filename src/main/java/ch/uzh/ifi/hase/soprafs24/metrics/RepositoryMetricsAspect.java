@@ -0,0 +1,43 @@
+package ch.uzh.ifi.hase.soprafs24.metrics;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times every call to a Spring Data repository (derived queries, custom
+ * queries and the inherited JpaRepository methods alike) as
+ * "user.repository", tagged with the repository method and whether it threw.
+ * Registered by the MetricsConfiguration.
+ */
+@Aspect
+public class RepositoryMetricsAspect {
+
+  private final MeterRegistry meterRegistry;
+
+  public RepositoryMetricsAspect(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+  public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+    Timer.Sample sample = Timer.start(meterRegistry);
+    String exception = "none";
+    try {
+      return joinPoint.proceed();
+    }
+    catch (Throwable e) {
+      exception = e.getClass().getSimpleName();
+      throw e;
+    }
+    finally {
+      sample.stop(Timer.builder("user.repository")
+          .tag("method", joinPoint.getSignature().getName())
+          .tag("exception", exception)
+          .register(meterRegistry));
+    }
+  }
+}
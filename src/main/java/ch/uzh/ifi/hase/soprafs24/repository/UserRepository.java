@@ -1,14 +1,98 @@
 package ch.uzh.ifi.hase.soprafs24.repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserSession;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserVersion;
 
 @Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserRepositoryCustom {
   
+  // natural-key lookups go through the query cache; Hibernate invalidates it on every write to USER
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
   User findByName(String name);
+
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
   User findByUsername(String username);
+
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
+  User findByToken(String token);
+
   // Optional<User> findById(Long Id);
-  }
+
+  // read endpoints: only the columns of a UserProfile, never a managed entity
+  String SELECT_PROFILE = "select new ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile("
+      + "u.id, u.name, u.username, u.status, u.creationDate, u.birthday, u.changeVersion) from User u";
+
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
+  @Query(SELECT_PROFILE + " where u.id = :id")
+  Optional<UserProfile> findProfileById(@Param("id") Long id);
+
+  @Query(SELECT_PROFILE + " order by u.id")
+  List<UserProfile> findAllProfiles();
+
+  // everything an ETag is made of, so conditional GETs do not read the whole row
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
+  @Query("select new ch.uzh.ifi.hase.soprafs24.repository.projection.UserVersion(u.version, u.status)"
+      + " from User u where u.id = :id")
+  Optional<UserVersion> findVersionById(@Param("id") Long id);
+
+  @Query(SELECT_PROFILE + " where u.id in :ids")
+  List<UserProfile> findProfilesByIdIn(@Param("ids") Collection<Long> ids);
+
+  // keyset pagination: the next page starts right after the last id of the previous one
+  @Query(SELECT_PROFILE + " where u.id > :id order by u.id")
+  List<UserProfile> findProfilesAfter(@Param("id") Long id, Pageable pageable);
+
+  // forward-only cursor over the whole table, has to be consumed inside a transaction and closed
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+  @Query(SELECT_PROFILE + " order by u.id")
+  Stream<UserProfile> streamAllProfiles();
+
+  // the sessions to resume after a restart, the only read besides findByToken that needs the token
+  @Query("select new ch.uzh.ifi.hase.soprafs24.repository.projection.UserSession(u.id, u.token)"
+      + " from User u where u.status = :status")
+  List<UserSession> findSessionsByStatus(@Param("status") UserStatus status);
+
+  // delta sync: rows written after the (version, id) cursor up to a version whose writes have all committed
+  @Query(SELECT_PROFILE + " where (u.changeVersion > :version or (u.changeVersion = :version and u.id > :id))"
+      + " and u.changeVersion <= :until order by u.changeVersion, u.id")
+  List<UserProfile> findProfilesChangedAfter(@Param("version") long version, @Param("id") long id,
+                                             @Param("until") long until, Pageable pageable);
+
+  @Query("select coalesce(max(u.changeVersion), 0) from User u")
+  long findMaxChangeVersion();
+
+  // set-wise uniqueness checks for the bulk import
+  @Query("select u.username from User u where u.username in :usernames")
+  List<String> findUsernamesIn(@Param("usernames") Collection<String> usernames);
+
+  @Query("select u.name from User u where u.name in :names")
+  List<String> findNamesIn(@Param("names") Collection<String> names);
+
+  // used by the PresenceRegistry and the SessionExpiry to write a whole batch of status changes at once,
+  // only users that still have the token of the session the change belongs to change
+  @Transactional
+  @Modifying
+  @Query("update User u set u.status = :status, u.changeVersion = :version"
+      + " where u.id in :ids and u.token in :tokens")
+  int updateStatusForTokens(@Param("status") UserStatus status, @Param("ids") Collection<Long> ids,
+                            @Param("tokens") Collection<String> tokens, @Param("version") long version);
+}
@@ -0,0 +1,53 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * Repository fragment for the queries that need direct access to the
+ * EntityManager and therefore cannot be expressed as derived queries.
+ *
+ * @see UserRepositoryCustomImpl
+ */
+public interface UserRepositoryCustom {
+
+  /**
+   * Persists new users in groups of batchSize. Every group is flushed as one
+   * JDBC batch and then cleared from the persistence context. Ids are
+   * assigned on persist and can be read from the given users afterwards.
+   * Has to be called inside a transaction.
+   */
+  void persistInBatches(List<User> users, int batchSize);
+
+  /**
+   * Sets the username and the birthday of a user, each only if it is not null,
+   * together with its change version in a single UPDATE, without loading the
+   * user. Also increments the @Version, so ETags handed out before no longer
+   * match. A username that is taken violates the unique constraint.
+   * Only this user's entry of the second-level cache is evicted (and the
+   * cached queries over USER, like any write to the table does), not the
+   * whole User region a JPQL bulk update would drop.
+   *
+   * @return the number of updated rows, 0 if there is no user with that id
+   */
+  int updateFields(Long id, String username, Date birthday, long changeVersion);
+
+  /**
+   * Selects only the given fields of the users with an id greater than after
+   * (all users if null), ordered by id, at most limit of them (all if 0).
+   * Every row maps the property names to their values in the order of
+   * UserField; the id is always part of it.
+   */
+  List<Map<String, Object>> findFieldsAfter(Set<UserField> fields, Long after, int limit);
+
+  /**
+   * Selects only the given fields of one user, like findFieldsAfter.
+   */
+  Optional<Map<String, Object>> findFieldsById(Set<UserField> fields, Long id);
+}
@@ -0,0 +1,152 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+
+import org.hibernate.Cache;
+import org.hibernate.query.NativeQuery;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+  private static final String PATCH_QUERY_SPACE = "user_patch";
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public void persistInBatches(List<User> users, int batchSize) {
+    for (int i = 0; i < users.size(); i++) {
+      entityManager.persist(users.get(i));
+      if ((i + 1) % batchSize == 0) {
+        entityManager.flush();
+        entityManager.clear();
+      }
+    }
+    entityManager.flush();
+    entityManager.clear();
+  }
+
+  @Override
+  public int updateFields(Long id, String username, Date birthday, long changeVersion) {
+    // only the given columns end up in the SET clause
+    StringBuilder sql = new StringBuilder("update user set change_version = :changeVersion, version = version + 1");
+    if (username != null) {
+      sql.append(", username = :username");
+    }
+    if (birthday != null) {
+      sql.append(", birthday = :birthday");
+    }
+    sql.append(" where id = :id");
+
+    Query query = entityManager.createNativeQuery(sql.toString())
+        .setParameter("changeVersion", changeVersion)
+        .setParameter("id", id);
+    if (username != null) {
+      query.setParameter("username", username);
+    }
+    if (birthday != null) {
+      query.setParameter("birthday", birthday);
+    }
+    // a query space that no entity is mapped to: Hibernate would otherwise empty the whole User region
+    query.unwrap(NativeQuery.class).addSynchronizedQuerySpace(PATCH_QUERY_SPACE);
+    int updated = query.executeUpdate();
+    if (updated > 0) {
+      evictAfterCommit(id);
+    }
+    return updated;
+  }
+
+  // evicted again once committed, so a reader in between cannot leave the old row cached
+  private void evictAfterCommit(Long id) {
+    Cache cache = entityManager.getEntityManagerFactory().getCache().unwrap(Cache.class);
+    Runnable evict = () -> {
+      cache.evict(User.class, id);
+      cache.evictDefaultQueryRegion();
+    };
+    evict.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          evict.run();
+        }
+      });
+    }
+  }
+
+  @Override
+  public List<Map<String, Object>> findFieldsAfter(Set<UserField> fields, Long after, int limit) {
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Tuple> query = selectFields(criteriaBuilder, fields);
+    Root<?> user = query.getRoots().iterator().next();
+    if (after != null) {
+      query.where(criteriaBuilder.greaterThan(user.<Long>get("id"), after));
+    }
+    query.orderBy(criteriaBuilder.asc(user.get("id")));
+
+    TypedQuery<Tuple> typedQuery = entityManager.createQuery(query);
+    if (limit > 0) {
+      typedQuery.setMaxResults(limit);
+    }
+    return toRows(typedQuery.getResultList());
+  }
+
+  @Override
+  public Optional<Map<String, Object>> findFieldsById(Set<UserField> fields, Long id) {
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Tuple> query = selectFields(criteriaBuilder, fields);
+    Root<?> user = query.getRoots().iterator().next();
+    query.where(criteriaBuilder.equal(user.get("id"), id));
+
+    List<Map<String, Object>> rows = toRows(entityManager.createQuery(query).getResultList());
+    return rows.stream().findFirst();
+  }
+
+  // only the selected columns end up in the SELECT clause, the entity itself is never hydrated
+  private CriteriaQuery<Tuple> selectFields(CriteriaBuilder criteriaBuilder, Set<UserField> fields) {
+    CriteriaQuery<Tuple> query = criteriaBuilder.createTupleQuery();
+    Root<User> user = query.from(User.class);
+
+    List<Selection<?>> selections = new ArrayList<>(fields.size() + 1);
+    selections.add(user.get(UserField.ID.getProperty()).alias(UserField.ID.getProperty()));
+    for (UserField field : fields) {
+      if (field != UserField.ID) {
+        selections.add(user.get(field.getProperty()).alias(field.getProperty()));
+      }
+    }
+    return query.multiselect(selections);
+  }
+
+  private static List<Map<String, Object>> toRows(List<Tuple> tuples) {
+    List<Map<String, Object>> rows = new ArrayList<>(tuples.size());
+    for (Tuple tuple : tuples) {
+      Map<String, Object> row = new LinkedHashMap<>();
+      for (TupleElement<?> element : tuple.getElements()) {
+        row.put(element.getAlias(), tuple.get(element));
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+}
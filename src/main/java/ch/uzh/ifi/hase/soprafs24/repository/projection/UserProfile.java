@@ -0,0 +1,66 @@
+package ch.uzh.ifi.hase.soprafs24.repository.projection;
+
+import java.util.Date;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+/**
+ * Read-only view of a user with exactly the columns the read endpoints
+ * return. Filled by JPQL constructor expressions in the UserRepository, so
+ * reading it neither hydrates a User entity (and its password) nor puts
+ * anything into the persistence context. The token is a credential and is
+ * deliberately not part of it; only the login answer carries it.
+ */
+public class UserProfile {
+
+  private final Long id;
+  private final String name;
+  private final String username;
+  private final UserStatus status;
+  private final Date creationDate;
+  private final Date birthday;
+  private final long changeVersion;
+
+  public UserProfile(Long id, String name, String username, UserStatus status, Date creationDate, Date birthday) {
+    this(id, name, username, status, creationDate, birthday, 0L);
+  }
+
+  public UserProfile(Long id, String name, String username, UserStatus status, Date creationDate, Date birthday,
+                     long changeVersion) {
+    this.id = id;
+    this.name = name;
+    this.username = username;
+    this.status = status;
+    this.creationDate = creationDate;
+    this.birthday = birthday;
+    this.changeVersion = changeVersion;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+
+  public Date getCreationDate() {
+    return creationDate;
+  }
+
+  public Date getBirthday() {
+    return birthday;
+  }
+
+  public long getChangeVersion() {
+    return changeVersion;
+  }
+}
@@ -0,0 +1,24 @@
+package ch.uzh.ifi.hase.soprafs24.repository.projection;
+
+/**
+ * The id of a user and the token of its session. Only read internally, e.g.
+ * to resume sessions after a restart; never returned by an endpoint.
+ */
+public class UserSession {
+
+  private final Long id;
+  private final String token;
+
+  public UserSession(Long id, String token) {
+    this.id = id;
+    this.token = token;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getToken() {
+    return token;
+  }
+}
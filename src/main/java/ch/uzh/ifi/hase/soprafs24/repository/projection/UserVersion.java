@@ -0,0 +1,26 @@
+package ch.uzh.ifi.hase.soprafs24.repository.projection;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+/**
+ * The optimistic lock version and the stored status of a user, all that is
+ * needed to compute its ETag without reading the rest of the row.
+ */
+public class UserVersion {
+
+  private final long version;
+  private final UserStatus status;
+
+  public UserVersion(long version, UserStatus status) {
+    this.version = version;
+    this.status = status;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+}
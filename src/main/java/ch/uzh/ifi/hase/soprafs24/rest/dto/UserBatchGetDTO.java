@@ -0,0 +1,29 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import java.util.List;
+
+/**
+ * Answer of GET /users?ids=...: the users in the order their ids were
+ * requested and the requested ids that belong to no user.
+ */
+public class UserBatchGetDTO {
+
+  private List<UserGetDTO> users;
+  private List<Long> missingIds;
+
+  public List<UserGetDTO> getUsers() {
+    return users;
+  }
+
+  public void setUsers(List<UserGetDTO> users) {
+    this.users = users;
+  }
+
+  public List<Long> getMissingIds() {
+    return missingIds;
+  }
+
+  public void setMissingIds(List<Long> missingIds) {
+    this.missingIds = missingIds;
+  }
+}
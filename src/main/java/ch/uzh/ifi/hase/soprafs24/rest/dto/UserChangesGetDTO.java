@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import java.util.List;
+
+/**
+ * Answer of GET /users/changes: the users written since the given cursor and
+ * the cursor to pass as "since" with the next request.
+ */
+public class UserChangesGetDTO {
+
+  private List<UserGetDTO> users;
+  private String cursor;
+  private boolean hasMore;
+
+  public List<UserGetDTO> getUsers() {
+    return users;
+  }
+
+  public void setUsers(List<UserGetDTO> users) {
+    this.users = users;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public boolean isHasMore() {
+    return hasMore;
+  }
+
+  public void setHasMore(boolean hasMore) {
+    this.hasMore = hasMore;
+  }
+}
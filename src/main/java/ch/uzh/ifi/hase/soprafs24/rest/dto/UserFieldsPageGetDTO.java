@@ -0,0 +1,30 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of the keyset-paginated user list with ?fields=, like
+ * UserPageGetDTO but every user only holds the selected properties.
+ */
+public class UserFieldsPageGetDTO {
+
+  private List<Map<String, Object>> users;
+  private Long nextCursor;
+
+  public List<Map<String, Object>> getUsers() {
+    return users;
+  }
+
+  public void setUsers(List<Map<String, Object>> users) {
+    this.users = users;
+  }
+
+  public Long getNextCursor() {
+    return nextCursor;
+  }
+
+  public void setNextCursor(Long nextCursor) {
+    this.nextCursor = nextCursor;
+  }
+}
@@ -0,0 +1,30 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import java.util.List;
+
+/**
+ * One page of the keyset-paginated user list.
+ * nextCursor is the id to pass as "after" to get the next page and is null
+ * once the last page has been reached.
+ */
+public class UserPageGetDTO {
+
+  private List<UserGetDTO> users;
+  private Long nextCursor;
+
+  public List<UserGetDTO> getUsers() {
+    return users;
+  }
+
+  public void setUsers(List<UserGetDTO> users) {
+    this.users = users;
+  }
+
+  public Long getNextCursor() {
+    return nextCursor;
+  }
+
+  public void setNextCursor(Long nextCursor) {
+    this.nextCursor = nextCursor;
+  }
+}
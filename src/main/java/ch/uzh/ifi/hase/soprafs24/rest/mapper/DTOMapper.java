@@ -5,9 +5,12 @@ import org.mapstruct.Mapping;
 import org.mapstruct.factory.Mappers;
 
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserImportResultGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs24.service.UserImportResult;
 
 /**
  * DTOMapper
@@ -33,16 +36,39 @@ public interface DTOMapper {
   @Mapping(target = "status", ignore = true)
   @Mapping(target = "creationDate", ignore = true)
   @Mapping(target = "birthday", ignore = true)
+  @Mapping(target = "changeVersion", ignore = true)
+  @Mapping(target = "version", ignore = true)
   User convertUserPostDTOtoEntity(UserPostDTO userPostDTO);
 
+  // the token is a credential and the password never leaves the server, only the login answer carries the token
   @Mapping(source = "id", target = "id")
   @Mapping(source = "creationDate", target = "creationDate")
   @Mapping(source = "name", target = "name")
   @Mapping(source = "username", target = "username")
   @Mapping(source = "status", target = "status")
-  @Mapping(source = "password", target = "password")
+  @Mapping(target = "token", ignore = true)
+  @Mapping(target = "password", ignore = true)
   UserGetDTO convertEntityToUserGetDTO(User user);
 
+  @Mapping(source = "id", target = "id")
+  @Mapping(source = "creationDate", target = "creationDate")
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "status", target = "status")
+  @Mapping(source = "token", target = "token")
+  @Mapping(target = "password", ignore = true)
+  UserGetDTO convertEntityToLoginUserGetDTO(User user);
+
+  @Mapping(source = "id", target = "id")
+  @Mapping(source = "creationDate", target = "creationDate")
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "status", target = "status")
+  @Mapping(source = "birthday", target = "birthday")
+  @Mapping(target = "token", ignore = true)
+  @Mapping(target = "password", ignore = true)
+  UserGetDTO convertUserProfileToUserGetDTO(UserProfile userProfile);
+
   @Mapping(source = "username", target = "username")
   @Mapping(source = "password", target = "password")
   @Mapping(target = "id", ignore = true)
@@ -50,6 +76,8 @@ public interface DTOMapper {
   @Mapping(target = "status", ignore = true)
   @Mapping(target = "creationDate", ignore = true)
   @Mapping(target = "birthday", ignore = true)
+  @Mapping(target = "changeVersion", ignore = true)
+  @Mapping(target = "version", ignore = true)
   User convertLoginUserPostDTOtoEntity(UserPostDTO loginUserPostDTO);
 
 
@@ -61,6 +89,15 @@ public interface DTOMapper {
   @Mapping(target = "token", ignore = true)
   @Mapping(target = "status", ignore = true)
   @Mapping(target = "creationDate", ignore = true)
+  @Mapping(target = "changeVersion", ignore = true)
+  @Mapping(target = "version", ignore = true)
   User convertEditUserPutDTOtoEntity(UserPutDTO editUserPutDTO);
 
+  @Mapping(source = "index", target = "index")
+  @Mapping(source = "id", target = "id")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "status", target = "status")
+  @Mapping(source = "message", target = "message")
+  UserImportResultGetDTO convertUserImportResultToGetDTO(UserImportResult userImportResult);
+
 }
@@ -0,0 +1,162 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Batch Loader
+ * Resolves single-key lookups through a batch function (e.g. one IN query),
+ * in the style of a DataLoader: lookups that arrive while a batch is running
+ * are queued and resolved together by the next one. There is no timer; a
+ * caller that finds nobody dispatching runs the batch function right away
+ * for at most maxBatchSize of the queued lookups, the oldest first, and then
+ * hands over. Whoever is still waiting for a result after that batch takes
+ * the next turn, so no caller runs more than one batch per turn for others.
+ * Under low load every lookup is a batch of one, under high load the number
+ * of queries follows the number of batches instead of the number of lookups.
+ * Every lookup of a batch is completed even if the batch function fails with
+ * an Error, so nobody waits for a batch that will never finish.
+ *
+ * @param <K> the key, e.g. a user id
+ * @param <V> the value, null for keys the batch function does not know
+ */
+public class BatchLoader<K, V> {
+
+  private final Function<Collection<K>, Map<K, V>> batchFunction;
+
+  private final int maxBatchSize;
+
+  private final Queue<Lookup<K, V>> queue = new ConcurrentLinkedQueue<>();
+
+  private final AtomicBoolean dispatching = new AtomicBoolean();
+
+  // notified whenever a dispatcher finished its batch
+  private final Object turn = new Object();
+
+  public BatchLoader(Function<Collection<K>, Map<K, V>> batchFunction, int maxBatchSize) {
+    this.batchFunction = batchFunction;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * @return the value of the key, possibly loaded together with the keys of
+   *         concurrent callers
+   */
+  public V load(K key) {
+    Lookup<K, V> lookup = new Lookup<>(key);
+    queue.add(lookup);
+    boolean interrupted = false;
+    while (!lookup.result.isDone()) {
+      if (dispatching.compareAndSet(false, true)) {
+        try {
+          resolve(poll());
+        }
+        finally {
+          dispatching.set(false);
+          synchronized (turn) {
+            turn.notifyAll();
+          }
+        }
+      }
+      else {
+        interrupted |= awaitTurn(lookup);
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      return lookup.result.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Loads many keys directly, in batches of at most maxBatchSize.
+   *
+   * @return the values by key, without the keys the batch function does not know
+   */
+  public Map<K, V> loadMany(Collection<K> keys) {
+    List<K> keyList = new ArrayList<>(keys);
+    Map<K, V> values = new HashMap<>();
+    for (int from = 0; from < keyList.size(); from += maxBatchSize) {
+      values.putAll(batchFunction.apply(keyList.subList(from, Math.min(from + maxBatchSize, keyList.size()))));
+    }
+    return values;
+  }
+
+  // the result is needed either way, so an interrupt is only remembered for the caller
+  private boolean awaitTurn(Lookup<K, V> lookup) {
+    synchronized (turn) {
+      // the dispatcher resets the flag before it notifies, checked under the lock no notification is missed
+      if (dispatching.get() && !lookup.result.isDone()) {
+        try {
+          turn.wait();
+        }
+        catch (InterruptedException e) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private List<Lookup<K, V>> poll() {
+    List<Lookup<K, V>> batch = new ArrayList<>();
+    Lookup<K, V> lookup;
+    while (batch.size() < maxBatchSize && (lookup = queue.poll()) != null) {
+      batch.add(lookup);
+    }
+    return batch;
+  }
+
+  private void resolve(List<Lookup<K, V>> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    Set<K> keys = new LinkedHashSet<>();
+    for (Lookup<K, V> lookup : batch) {
+      keys.add(lookup.key);
+    }
+
+    try {
+      Map<K, V> values = batchFunction.apply(keys);
+      batch.forEach(lookup -> lookup.result.complete(values.get(lookup.key)));
+    }
+    catch (RuntimeException | Error e) {
+      // the waiting callers get the failure too, each of them rethrows it
+      batch.forEach(lookup -> lookup.result.completeExceptionally(e));
+    }
+  }
+
+  private static final class Lookup<K, V> {
+
+    private final K key;
+
+    private final CompletableFuture<V> result = new CompletableFuture<>();
+
+    Lookup(K key) {
+      this.key = key;
+    }
+  }
+}
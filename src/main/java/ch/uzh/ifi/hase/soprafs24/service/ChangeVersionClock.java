@@ -0,0 +1,113 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+
+/**
+ * Change Version Clock
+ * Hands out the change versions stored with every write to a user, strictly
+ * increasing and continuing after the highest version in the table.
+ * A version is handed out before its transaction commits, so a smaller version
+ * can become visible after a larger one. The clock therefore remembers the
+ * versions whose writes are still running; everything below the smallest of
+ * them is final, and GET /users/changes never hands out a cursor beyond that.
+ */
+@Component
+public class ChangeVersionClock {
+
+  private final UserRepository userRepository;
+
+  private final AtomicLong lastVersion = new AtomicLong();
+
+  private final NavigableSet<Long> inFlight = new ConcurrentSkipListSet<>();
+
+  // writes that have completed (committed or not), changes with every change of the table
+  private final AtomicLong completedWrites = new AtomicLong();
+
+  public ChangeVersionClock(@Qualifier("userRepository") UserRepository userRepository) {
+    this.userRepository = userRepository;
+  }
+
+  @PostConstruct
+  public void init() {
+    lastVersion.set(userRepository.findMaxChangeVersion());
+  }
+
+  /**
+   * Returns the version for a write in the current transaction. The version
+   * counts as in flight until the transaction has completed.
+   *
+   * @throws IllegalStateException if there is no active transaction
+   */
+  public long next() {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      throw new IllegalStateException("Change versions can only be handed out within a transaction");
+    }
+    long version = allocate();
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        release(version);
+      }
+    });
+    return version;
+  }
+
+  /**
+   * Runs a write that commits on its own (e.g. a bulk UPDATE of the
+   * repository) with a new version, which is in flight until it returns.
+   */
+  public <T> T withVersion(LongFunction<T> write) {
+    long version = allocate();
+    try {
+      return write.apply(version);
+    }
+    finally {
+      release(version);
+    }
+  }
+
+  /**
+   * @return the highest version up to which all writes have completed
+   */
+  public long stableVersion() {
+    // under the lock of allocate, otherwise a version could be seen as last before it is in flight
+    synchronized (inFlight) {
+      long last = lastVersion.get();
+      Long oldestInFlight = inFlight.ceiling(Long.MIN_VALUE);
+      return oldestInFlight == null ? last : Math.min(last, oldestInFlight - 1);
+    }
+  }
+
+  /**
+   * @return the number of writes that have completed since startup
+   */
+  public long completedWrites() {
+    return completedWrites.get();
+  }
+
+  private void release(long version) {
+    inFlight.remove(version);
+    completedWrites.incrementAndGet();
+  }
+
+  private long allocate() {
+    // taken and registered atomically with respect to stableVersion
+    synchronized (inFlight) {
+      long version = lastVersion.incrementAndGet();
+      inFlight.add(version);
+      return version;
+    }
+  }
+}
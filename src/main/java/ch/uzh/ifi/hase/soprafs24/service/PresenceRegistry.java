@@ -0,0 +1,169 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+
+/**
+ * Presence Registry
+ * Holds the ONLINE/OFFLINE status of every user whose status changed while
+ * this instance is running and is the source of truth for it. Changes passed
+ * to setStatus are only recorded in memory and written to the USER table in the background
+ * (write-behind): on a fixed interval, as soon as batchSize changes are
+ * pending, and once more when the application shuts down. Every write is one
+ * set-based UPDATE per status instead of one flush per login/logout.
+ * A change only applies to the session it belongs to: the UPDATE is guarded
+ * by the token of that session, so a user who logged in again before the
+ * write caught up keeps the ONLINE status of the new login.
+ */
+@Component
+public class PresenceRegistry {
+
+  private final Logger log = LoggerFactory.getLogger(PresenceRegistry.class);
+
+  private final UserRepository userRepository;
+
+  private final ChangeVersionClock changeVersionClock;
+
+  private final int batchSize;
+
+  private final Map<Long, UserStatus> statuses = new ConcurrentHashMap<>();
+
+  // changes that have not been written to the database yet
+  private final Map<Long, Change> pending = new ConcurrentHashMap<>();
+
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+  // number of status changes since startup, part of the ETag of the user list
+  private final AtomicLong changeCount = new AtomicLong();
+
+  private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "presence-flush");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public PresenceRegistry(@Qualifier("userRepository") UserRepository userRepository,
+                          ChangeVersionClock changeVersionClock,
+                          @Value("${users.presence.batch-size:500}") int batchSize) {
+    this.userRepository = userRepository;
+    this.changeVersionClock = changeVersionClock;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * @return the current status of the user, or null if it did not change since
+   *         startup and the stored status is therefore still accurate
+   */
+  public UserStatus getStatus(Long userId) {
+    return userId == null ? null : statuses.get(userId);
+  }
+
+  /**
+   * @param token the token of the session the change belongs to; the change
+   *        is not written if the stored token has moved on by then
+   */
+  public void setStatus(Long userId, UserStatus status, String token) {
+    statuses.put(userId, status);
+    changeCount.incrementAndGet();
+    pending.put(userId, new Change(status, token));
+
+    if (pending.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+      flushExecutor.execute(() -> {
+        flushRequested.set(false);
+        flush();
+      });
+    }
+  }
+
+  /**
+   * Records a status that the caller already wrote to the database itself.
+   * A change for the same user that is still pending is dropped so that it
+   * cannot overwrite the newer value.
+   */
+  public void statusWritten(Long userId, UserStatus status) {
+    statuses.put(userId, status);
+    changeCount.incrementAndGet();
+    pending.remove(userId);
+  }
+
+  public long getChangeCount() {
+    return changeCount.get();
+  }
+
+  @Scheduled(fixedDelayString = "${users.presence.flush-interval:1000}")
+  public synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    Map<UserStatus, Map<Long, String>> tokensByStatus = new EnumMap<>(UserStatus.class);
+    for (Long userId : pending.keySet()) {
+      Change change = pending.remove(userId);
+      if (change != null) {
+        tokensByStatus.computeIfAbsent(change.status, key -> new LinkedHashMap<>()).put(userId, change.token);
+      }
+    }
+
+    tokensByStatus.forEach((status, tokensByUserId) -> {
+      List<Long> ids = new ArrayList<>(tokensByUserId.keySet());
+      for (int from = 0; from < ids.size(); from += batchSize) {
+        List<Long> chunk = ids.subList(from, Math.min(from + batchSize, ids.size()));
+        List<String> tokens = new ArrayList<>(chunk.size());
+        chunk.forEach(userId -> tokens.add(tokensByUserId.get(userId)));
+        try {
+          // users who logged in again since have a new token and are left alone
+          changeVersionClock.withVersion(
+              version -> userRepository.updateStatusForTokens(status, chunk, tokens, version));
+        }
+        catch (RuntimeException e) {
+          log.warn("Could not write {} status changes, retrying with the next flush", chunk.size(), e);
+          // a newer change for the same user must not be overwritten by the failed one
+          chunk.forEach(userId -> pending.putIfAbsent(userId, new Change(status, tokensByUserId.get(userId))));
+        }
+      }
+    });
+    // the tokens are credentials and stay out of the log
+    if (log.isDebugEnabled()) {
+      tokensByStatus.forEach((status, tokensByUserId) ->
+          log.debug("Flushed status {} of users {}", status, tokensByUserId.keySet()));
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    flushExecutor.shutdownNow();
+    flush();
+  }
+
+  private static final class Change {
+
+    private final UserStatus status;
+
+    private final String token;
+
+    Change(UserStatus status, String token) {
+      this.status = status;
+      this.token = token;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import ch.uzh.ifi.hase.soprafs24.exceptions.TooManyRequestsException;
+
+/**
+ * Rate Limiter
+ * In-process token buckets for the unauthenticated endpoints, keyed by client
+ * address and by username, so that a burst of login or registration attempts
+ * is turned away before it reaches the USER table. Every limit is configured
+ * as "requests/period", e.g. users.rate-limit.login.per-ip=30/1m allows a
+ * burst of 30 logins per address, refilled evenly over a minute.
+ * A bucket is a single AtomicLong updated with compare-and-set (generic cell
+ * rate algorithm), so checks never lock. Buckets that were not used for a
+ * whole period are full again anyway and are evicted.
+ */
+@Component
+public class RateLimiter {
+
+  private final Limit loginPerIp;
+
+  private final Limit loginPerUsername;
+
+  private final Limit registrationPerIp;
+
+  private final Limit importPerIp;
+
+  @Autowired
+  public RateLimiter(@Value("${users.rate-limit.login.per-ip:30/1m}") String loginPerIp,
+                     @Value("${users.rate-limit.login.per-username:10/1m}") String loginPerUsername,
+                     @Value("${users.rate-limit.registration.per-ip:10/1m}") String registrationPerIp,
+                     @Value("${users.rate-limit.import.per-ip:5/1m}") String importPerIp,
+                     @Value("${users.rate-limit.maximum-keys:100000}") long maximumKeys) {
+    this(loginPerIp, loginPerUsername, registrationPerIp, importPerIp, maximumKeys, System::nanoTime);
+  }
+
+  // the tests pass their own clock
+  RateLimiter(String loginPerIp, String loginPerUsername, String registrationPerIp, String importPerIp,
+              long maximumKeys, LongSupplier nanoTime) {
+    this.loginPerIp = new Limit("login.per-ip", loginPerIp, maximumKeys, nanoTime);
+    this.loginPerUsername = new Limit("login.per-username", loginPerUsername, maximumKeys, nanoTime);
+    this.registrationPerIp = new Limit("registration.per-ip", registrationPerIp, maximumKeys, nanoTime);
+    this.importPerIp = new Limit("import.per-ip", importPerIp, maximumKeys, nanoTime);
+  }
+
+  /**
+   * Checked before the body of a login is read, so a throttled address does
+   * not even cost the parsing of its credentials.
+   *
+   * @throws TooManyRequestsException if the address used up its login attempts
+   */
+  public void checkLoginAddress(String clientAddress) {
+    loginPerIp.acquire(clientAddress);
+  }
+
+  /**
+   * @throws TooManyRequestsException if the username used up its login attempts
+   */
+  public void checkLoginUsername(String username) {
+    loginPerUsername.acquire(username);
+  }
+
+  /**
+   * @throws TooManyRequestsException if the address used up its registrations
+   */
+  public void checkRegistration(String clientAddress) {
+    registrationPerIp.acquire(clientAddress);
+  }
+
+  /**
+   * @throws TooManyRequestsException if the address used up its bulk imports
+   */
+  public void checkImport(String clientAddress) {
+    importPerIp.acquire(clientAddress);
+  }
+
+  private static final class Limit {
+
+    // time between two requests at the sustained rate
+    private final long emissionInterval;
+
+    // how far the bucket may run ahead of now, i.e. the burst size minus one request
+    private final long tolerance;
+
+    private final Cache<String, AtomicLong> buckets;
+
+    private final Counter rejections;
+
+    private final LongSupplier nanoTime;
+
+    Limit(String name, String spec, long maximumKeys, LongSupplier nanoTime) {
+      int slash = spec.indexOf('/');
+      if (slash < 0) {
+        throw new IllegalArgumentException("Rate limit " + name + " must look like <requests>/<period>: " + spec);
+      }
+      long requests = Long.parseLong(spec.substring(0, slash).trim());
+      Duration period = DurationStyle.detectAndParse(spec.substring(slash + 1).trim());
+
+      this.emissionInterval = period.toNanos() / requests;
+      this.tolerance = period.toNanos() - emissionInterval;
+      this.buckets = Caffeine.newBuilder()
+          .maximumSize(maximumKeys)
+          .expireAfterAccess(period)
+          .build();
+      this.rejections = Metrics.counter("user.rate-limited", "limit", name);
+      this.nanoTime = nanoTime;
+    }
+
+    void acquire(String key) {
+      // the bucket stores the theoretical arrival time of the next request
+      AtomicLong bucket = buckets.get(key, k -> new AtomicLong(Long.MIN_VALUE));
+      while (true) {
+        long now = nanoTime.getAsLong();
+        long current = bucket.get();
+        long arrival = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+        long wait = arrival - now - tolerance;
+        if (wait > 0) {
+          rejections.increment();
+          throw new TooManyRequestsException(Duration.ofNanos(wait));
+        }
+        if (bucket.compareAndSet(current, arrival + emissionInterval)) {
+          return;
+        }
+      }
+    }
+  }
+}
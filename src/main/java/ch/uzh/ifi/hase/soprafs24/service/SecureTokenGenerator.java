@@ -0,0 +1,55 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Secure Token Generator
+ * Random tokens from one DRBG per thread, so concurrent logins do not all
+ * wait on a shared lock: neither on the single instance behind
+ * UUID.randomUUID() nor on the NativePRNG that new SecureRandom() returns on
+ * Linux, whose instances all share one global lock. Each DRBG is seeded from
+ * the system entropy once, when its thread first needs a token, and then
+ * only locks itself. The default 32 random bytes (256 bits, a UUID has 122)
+ * are encoded as 43 characters of unpadded URL-safe Base64.
+ */
+@Component
+public class SecureTokenGenerator implements TokenGenerator {
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureTokenGenerator::newDrbg);
+
+  private final int tokenBytes;
+
+  public SecureTokenGenerator(@Value("${users.token.bytes:32}") int tokenBytes) {
+    if (tokenBytes < 16) {
+      throw new IllegalArgumentException("Tokens need at least 16 random bytes, got " + tokenBytes);
+    }
+    this.tokenBytes = tokenBytes;
+  }
+
+  @Override
+  public String generate() {
+    byte[] bytes = new byte[tokenBytes];
+    RANDOM.get().nextBytes(bytes);
+    return ENCODER.encodeToString(bytes);
+  }
+
+  // 256 bit security strength, no reseeding or prediction resistance that would go back to the shared entropy source
+  private static SecureRandom newDrbg() {
+    try {
+      return SecureRandom.getInstance("DRBG",
+          DrbgParameters.instantiation(256, DrbgParameters.Capability.NONE, null));
+    }
+    catch (NoSuchAlgorithmException e) {
+      // every JDK since 9 has DRBG
+      throw new IllegalStateException("No DRBG SecureRandom available", e);
+    }
+  }
+}
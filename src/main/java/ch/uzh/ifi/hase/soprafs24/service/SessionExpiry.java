@@ -0,0 +1,227 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserSession;
+
+/**
+ * Session Expiry
+ * Logs out users whose client stopped sending heartbeats. Every logged in
+ * user has a session with a deadline that each heartbeat moves ttl into the
+ * future. Sessions sit in a hashed timing wheel: one slot per tick, and a
+ * session is kept in the slot of the tick its deadline falls into. A
+ * heartbeat only updates the deadline (O(1)); when the wheel reaches a slot,
+ * sessions that were extended in the meantime move on to the slot of their
+ * new deadline and all others are expired. The expired users of a tick are
+ * set OFFLINE with one UPDATE per chunk and their tokens are revoked.
+ */
+@Component
+public class SessionExpiry {
+
+  private final Logger log = LoggerFactory.getLogger(SessionExpiry.class);
+
+  private final Counter expirations = Metrics.counter("user.sessions.expired");
+
+  private final UserRepository userRepository;
+
+  private final PresenceRegistry presenceRegistry;
+
+  private final TokenIndex tokenIndex;
+
+  private final ApplicationEventPublisher eventPublisher;
+
+  private final SignedTokenCodec signedTokenCodec;
+
+  private final ChangeVersionClock changeVersionClock;
+
+  private final long ttl;
+
+  private final long tickDuration;
+
+  private final int batchSize;
+
+  private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+
+  private final Set<Long>[] wheel;
+
+  // the last tick whose slot has been processed
+  private long currentTick;
+
+  @SuppressWarnings("unchecked")
+  public SessionExpiry(@Qualifier("userRepository") UserRepository userRepository, PresenceRegistry presenceRegistry,
+                       TokenIndex tokenIndex, ApplicationEventPublisher eventPublisher,
+                       SignedTokenCodec signedTokenCodec, ChangeVersionClock changeVersionClock,
+                       @Value("${users.session.ttl:5m}") Duration ttl,
+                       @Value("${users.session.tick:1000}") long tickDuration,
+                       @Value("${users.session.wheel-size:512}") int wheelSize,
+                       @Value("${users.presence.batch-size:500}") int batchSize) {
+    this.userRepository = userRepository;
+    this.presenceRegistry = presenceRegistry;
+    this.tokenIndex = tokenIndex;
+    this.eventPublisher = eventPublisher;
+    this.signedTokenCodec = signedTokenCodec;
+    this.changeVersionClock = changeVersionClock;
+    this.ttl = ttl.toMillis();
+    this.tickDuration = tickDuration;
+    this.batchSize = batchSize;
+    this.wheel = new Set[wheelSize];
+    for (int i = 0; i < wheelSize; i++) {
+      wheel[i] = ConcurrentHashMap.newKeySet();
+    }
+    this.currentTick = tickOf(System.currentTimeMillis());
+  }
+
+  // users that were ONLINE when the last instance stopped get one ttl to send a heartbeat
+  @EventListener(ApplicationReadyEvent.class)
+  @Transactional(readOnly = true)
+  public void load() {
+    for (UserSession userSession : userRepository.findSessionsByStatus(UserStatus.ONLINE)) {
+      touch(userSession.getId(), userSession.getToken());
+    }
+    log.info("Session expiry is tracking {} sessions", sessions.size());
+  }
+
+  /**
+   * Starts the session of a user or extends it by ttl from now. A new token
+   * (after a login) replaces the session of the old one.
+   */
+  public void touch(Long userId, String token) {
+    long deadline = System.currentTimeMillis() + ttl;
+    Session session = sessions.compute(userId, (key, current) -> {
+      if (current != null && Objects.equals(current.token, token)) {
+        current.deadline = deadline;
+        return current;
+      }
+      return new Session(token, deadline);
+    });
+    // only the first touch of a session puts it on the wheel, tick moves it from there
+    if (session.scheduled.compareAndSet(false, true)) {
+      wheel[slotOf(tickOf(deadline))].add(userId);
+    }
+  }
+
+  // after a logout there is nothing left to expire
+  public void end(Long userId) {
+    sessions.remove(userId);
+  }
+
+  @Scheduled(fixedRateString = "${users.session.tick:1000}")
+  public void tick() {
+    tick(System.currentTimeMillis());
+  }
+
+  synchronized void tick(long now) {
+    long nowTick = tickOf(now);
+    // process every slot up to now, at most one full turn if ticks were missed
+    long firstTick = Math.max(currentTick + 1, nowTick - wheel.length + 1);
+
+    Map<Long, String> expired = new LinkedHashMap<>();
+    for (long tick = firstTick; tick <= nowTick; tick++) {
+      Iterator<Long> userIds = wheel[slotOf(tick)].iterator();
+      while (userIds.hasNext()) {
+        Long userId = userIds.next();
+        Session session = sessions.get(userId);
+        if (session == null) {
+          userIds.remove();
+        }
+        else if (session.deadline <= now) {
+          userIds.remove();
+          if (sessions.remove(userId, session)) {
+            expired.put(userId, session.token);
+          }
+        }
+        else if (slotOf(tickOf(session.deadline)) != slotOf(tick)) {
+          // extended by a heartbeat (or more than one turn away): move to the slot of the new deadline
+          userIds.remove();
+          wheel[slotOf(tickOf(session.deadline))].add(userId);
+        }
+      }
+    }
+    currentTick = Math.max(currentTick, nowTick);
+
+    if (!expired.isEmpty()) {
+      expire(expired);
+    }
+  }
+
+  private void expire(Map<Long, String> tokensByUserId) {
+    List<Long> userIds = new ArrayList<>(tokensByUserId.keySet());
+    for (int from = 0; from < userIds.size(); from += batchSize) {
+      List<Long> chunk = userIds.subList(from, Math.min(from + batchSize, userIds.size()));
+      List<String> tokens = new ArrayList<>(chunk.size());
+      chunk.forEach(userId -> tokens.add(tokensByUserId.get(userId)));
+      try {
+        // users who logged in again since have a new token and are left alone
+        changeVersionClock.withVersion(
+            version -> userRepository.updateStatusForTokens(UserStatus.OFFLINE, chunk, tokens, version));
+      }
+      catch (RuntimeException e) {
+        log.warn("Could not write {} expired sessions, leaving them to the presence write-behind", chunk.size(), e);
+        chunk.forEach(
+            userId -> presenceRegistry.setStatus(userId, UserStatus.OFFLINE, tokensByUserId.get(userId)));
+        continue;
+      }
+      for (Long userId : chunk) {
+        if (!sessions.containsKey(userId)) {
+          presenceRegistry.statusWritten(userId, UserStatus.OFFLINE);
+        }
+      }
+    }
+
+    tokensByUserId.forEach((userId, token) -> {
+      tokenIndex.revoke(token);
+      if (!sessions.containsKey(userId)) {
+        signedTokenCodec.revoke(userId);
+      }
+      eventPublisher.publishEvent(new UserEvent(UserEventType.STATUS_CHANGED, userId, UserStatus.OFFLINE));
+    });
+    expirations.increment(userIds.size());
+    log.debug("Expired sessions of users {}", userIds);
+  }
+
+  private long tickOf(long time) {
+    return time / tickDuration;
+  }
+
+  private int slotOf(long tick) {
+    return (int) (tick % wheel.length);
+  }
+
+  private static final class Session {
+
+    private final String token;
+    private volatile long deadline;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    Session(String token, long deadline) {
+      this.token = token;
+      this.deadline = deadline;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Signed Token Codec
+ * With users.token.mode=signed, logIn hands out tokens that carry the user id,
+ * the issue time and the expiry, followed by an HMAC-SHA256 over these three
+ * values: base64url(id | issuedAt | expiresAt) "." base64url(hmac). Such a
+ * token is verified by recomputing the HMAC, without asking the database or
+ * any shared store, so every node that knows users.token.secret can
+ * authenticate it.
+ * A logout cannot take a token back, so the codec keeps a small revocation
+ * list: per user the time of the last logout, which invalidates every token
+ * issued before. An entry is dropped once all tokens it covers have expired
+ * anyway. The list is local to this node.
+ */
+@Component
+public class SignedTokenCodec {
+
+  private static final String ALGORITHM = "HmacSHA256";
+
+  private static final int PAYLOAD_LENGTH = 3 * Long.BYTES;
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private final Logger log = LoggerFactory.getLogger(SignedTokenCodec.class);
+
+  private final boolean enabled;
+
+  private final long ttl;
+
+  private final ThreadLocal<Mac> macs;
+
+  // user id -> tokens issued up to this time (epoch millis) are revoked
+  private final Map<Long, Long> revokedBefore = new ConcurrentHashMap<>();
+
+  public SignedTokenCodec(@Value("${users.token.mode:opaque}") String mode,
+                          @Value("${users.token.secret:}") String secret,
+                          @Value("${users.token.ttl:12h}") Duration ttl) {
+    this.enabled = "signed".equalsIgnoreCase(mode);
+    this.ttl = ttl.toMillis();
+
+    byte[] key;
+    if (!secret.isBlank()) {
+      key = Base64.getDecoder().decode(secret.trim());
+      if (key.length < 32) {
+        throw new IllegalArgumentException("users.token.secret must hold at least 32 bytes (Base64 encoded)");
+      }
+    }
+    else {
+      key = new byte[32];
+      new SecureRandom().nextBytes(key);
+      if (enabled) {
+        log.warn("No users.token.secret configured, signed tokens are only valid on this node until it restarts");
+      }
+    }
+    SecretKeySpec keySpec = new SecretKeySpec(key, ALGORITHM);
+    this.macs = ThreadLocal.withInitial(() -> {
+      try {
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(keySpec);
+        return mac;
+      }
+      catch (GeneralSecurityException e) {
+        throw new IllegalStateException("Could not create " + ALGORITHM, e);
+      }
+    });
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String issue(Long userId) {
+    // a token issued right after a revocation must not fall into the same millisecond
+    long issuedAt = Math.max(System.currentTimeMillis(), revokedBefore.getOrDefault(userId, 0L) + 1);
+    byte[] payload = new byte[PAYLOAD_LENGTH];
+    putLong(payload, 0, userId);
+    putLong(payload, Long.BYTES, issuedAt);
+    putLong(payload, 2 * Long.BYTES, issuedAt + ttl);
+    return ENCODER.encodeToString(payload) + '.' + ENCODER.encodeToString(macs.get().doFinal(payload));
+  }
+
+  /**
+   * @return the id of the user the token was issued to, or null if the token
+   *         is not a signed token, its signature does not match, it expired or
+   *         it was revoked
+   */
+  public Long verify(String token) {
+    int dot = token.indexOf('.');
+    if (dot < 0) {
+      return null;
+    }
+
+    byte[] payload;
+    byte[] signature;
+    try {
+      payload = DECODER.decode(token.substring(0, dot).getBytes(StandardCharsets.ISO_8859_1));
+      signature = DECODER.decode(token.substring(dot + 1).getBytes(StandardCharsets.ISO_8859_1));
+    }
+    catch (IllegalArgumentException e) {
+      return null;
+    }
+    // constant time comparison, so the signature cannot be guessed byte by byte
+    if (payload.length != PAYLOAD_LENGTH || !MessageDigest.isEqual(macs.get().doFinal(payload), signature)) {
+      return null;
+    }
+
+    long userId = getLong(payload, 0);
+    long issuedAt = getLong(payload, Long.BYTES);
+    long expiresAt = getLong(payload, 2 * Long.BYTES);
+    if (expiresAt <= System.currentTimeMillis()) {
+      return null;
+    }
+    Long revoked = revokedBefore.get(userId);
+    if (revoked != null && issuedAt <= revoked) {
+      return null;
+    }
+    return userId;
+  }
+
+  // invalidates every token issued to the user so far
+  public void revoke(Long userId) {
+    long now = System.currentTimeMillis();
+    revokedBefore.merge(userId, now, (previous, current) -> Math.max(previous + 1, current));
+  }
+
+  public boolean isSigned(String token) {
+    return token.indexOf('.') >= 0;
+  }
+
+  @Scheduled(fixedDelayString = "${users.token.revocation-purge-interval:60000}")
+  public void purgeRevocations() {
+    long oldestValidIssue = System.currentTimeMillis() - ttl;
+    revokedBefore.values().removeIf(revoked -> revoked < oldestValidIssue);
+  }
+
+  private static void putLong(byte[] bytes, int offset, long value) {
+    for (int i = Long.BYTES - 1; i >= 0; i--) {
+      bytes[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private static long getLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = 0; i < Long.BYTES; i++) {
+      value = (value << 8) | (bytes[offset + i] & 0xff);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,70 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Single Flight
+ * Lets concurrent calls for the same key share one execution: the first
+ * caller runs the call, everyone who asks for the key while it is running
+ * waits for it and gets the same result (or exception). Once the call has
+ * returned the key is free again, so nothing is cached beyond the flight.
+ * Results are handed to several threads and must not be modified.
+ * The user.single-flight counter tells executed from coalesced calls.
+ *
+ * @param <K> identifies identical calls
+ * @param <V> the result of a call
+ */
+public class SingleFlight<K, V> {
+
+  private final Map<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+  private final Counter executed;
+
+  private final Counter coalesced;
+
+  public SingleFlight(String name) {
+    this.executed = Metrics.counter("user.single-flight", "name", name, "result", "executed");
+    this.coalesced = Metrics.counter("user.single-flight", "name", name, "result", "coalesced");
+  }
+
+  public V execute(K key, Supplier<V> call) {
+    CompletableFuture<V> flight = new CompletableFuture<>();
+    CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+    if (running != null) {
+      coalesced.increment();
+      try {
+        return running.join();
+      }
+      catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    executed.increment();
+    try {
+      V result = call.get();
+      flight.complete(result);
+      return result;
+    }
+    catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    }
+    finally {
+      flights.remove(key, flight);
+    }
+  }
+}
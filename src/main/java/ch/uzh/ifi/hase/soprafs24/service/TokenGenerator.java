@@ -0,0 +1,10 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+/**
+ * Creates the tokens handed out on registration and login. Tokens must be
+ * unguessable and safe to use in URLs and headers without escaping.
+ */
+public interface TokenGenerator {
+
+  String generate();
+}
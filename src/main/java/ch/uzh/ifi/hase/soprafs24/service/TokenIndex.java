@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+/**
+ * Token Index
+ * In-memory map from a user token to the id and status of its owner, so that
+ * a request can be authenticated without asking the database. The index is
+ * bounded and forgets tokens that have not been used for a while; a forgotten
+ * token is simply looked up again by the UserService.
+ * The UserService keeps the index up to date on login and logout.
+ */
+@Component
+public class TokenIndex {
+
+  private final Cache<String, Entry> entries;
+
+  public TokenIndex(@Value("${users.token-index.maximum-size:100000}") long maximumSize,
+                    @Value("${users.token-index.expire-after-access:30m}") Duration expireAfterAccess) {
+    this.entries = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterAccess(expireAfterAccess)
+        .build();
+  }
+
+  public Entry lookup(String token) {
+    return entries.getIfPresent(token);
+  }
+
+  public Entry register(String token, Long userId, UserStatus status) {
+    Entry entry = new Entry(userId, status);
+    entries.put(token, entry);
+    return entry;
+  }
+
+  public void revoke(String token) {
+    if (token != null) {
+      entries.invalidate(token);
+    }
+  }
+
+  public static final class Entry {
+
+    private final Long userId;
+    private final UserStatus status;
+
+    Entry(Long userId, UserStatus status) {
+      this.userId = userId;
+      this.status = status;
+    }
+
+    public Long getUserId() {
+      return userId;
+    }
+
+    public UserStatus getStatus() {
+      return status;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+
+/**
+ * Uniqueness Filter
+ * Two Bloom filters over all usernames and names. If the filter says a value
+ * was never seen, it is definitely not taken and the UserService can skip the
+ * uniqueness queries before the INSERT. A "maybe" answer (a real duplicate or
+ * a false positive) still goes to the database. The unique constraints on the
+ * USER table remain the final authority, e.g. for two concurrent
+ * registrations of the same username.
+ * Bloom filters cannot forget, so values that are no longer in use (an old
+ * username after a rename) only cause additional false positives.
+ */
+@Component
+public class UniquenessFilter {
+
+  private final Logger log = LoggerFactory.getLogger(UniquenessFilter.class);
+
+  private final UserRepository userRepository;
+
+  private final boolean enabled;
+
+  private final BloomFilter usernames;
+
+  private final BloomFilter names;
+
+  // until the filters have been filled from the database, every value might be taken
+  private volatile boolean ready;
+
+  public UniquenessFilter(@Qualifier("userRepository") UserRepository userRepository,
+                          @Value("${users.uniqueness-filter.enabled:true}") boolean enabled,
+                          @Value("${users.uniqueness-filter.expected-users:1000000}") int expectedUsers,
+                          @Value("${users.uniqueness-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+    this.userRepository = userRepository;
+    this.enabled = enabled;
+    this.usernames = new BloomFilter(expectedUsers, falsePositiveRate);
+    this.names = new BloomFilter(expectedUsers, falsePositiveRate);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  @Transactional(readOnly = true)
+  public void load() {
+    if (!enabled) {
+      return;
+    }
+    try (Stream<UserProfile> userProfiles = userRepository.streamAllProfiles()) {
+      userProfiles.forEach(userProfile -> add(userProfile.getUsername(), userProfile.getName()));
+    }
+    ready = true;
+    log.info("Uniqueness filter is ready");
+  }
+
+  /**
+   * @return false if neither the username nor the name of the user can be
+   *         taken, true if at least one of them might be
+   */
+  public boolean mightBeTaken(String username, String name) {
+    if (!ready) {
+      return true;
+    }
+    return usernames.mightContain(username) || names.mightContain(name);
+  }
+
+  public void add(User user) {
+    add(user.getUsername(), user.getName());
+  }
+
+  public void add(String username, String name) {
+    usernames.put(username);
+    names.put(name);
+  }
+
+  public void addUsername(String username) {
+    usernames.put(username);
+  }
+
+  /**
+   * Lock-free Bloom filter over strings. Uses the usual double hashing scheme
+   * (h1 + i * h2) to derive the bit positions from one 64 bit hash.
+   */
+  private static final class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    BloomFilter(int expectedInsertions, double falsePositiveRate) {
+      long optimalBits = (long) (-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+      int words = (int) Math.max(1, (optimalBits + 63) / 64);
+      this.bits = new AtomicLongArray(words);
+      this.bitCount = words * 64L;
+      this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    }
+
+    void put(String value) {
+      if (value == null) {
+        return;
+      }
+      long hash = hash(value);
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for (int i = 1; i <= hashCount; i++) {
+        long bit = index(h1 + i * h2);
+        long mask = 1L << bit;
+        int word = (int) (bit >>> 6);
+        long current = bits.get(word);
+        while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+          current = bits.get(word);
+        }
+      }
+    }
+
+    boolean mightContain(String value) {
+      if (value == null) {
+        return false;
+      }
+      long hash = hash(value);
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for (int i = 1; i <= hashCount; i++) {
+        long bit = index(h1 + i * h2);
+        if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private long index(int combinedHash) {
+      // flip negative hashes instead of using Math.abs, which fails for Integer.MIN_VALUE
+      return (combinedHash < 0 ? ~combinedHash : combinedHash) % bitCount;
+    }
+
+    // FNV-1a over the UTF-8 bytes, finished with the splitmix64 mixer to spread the bits
+    private static long hash(String value) {
+      long hash = 0xcbf29ce484222325L;
+      for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+        hash ^= b;
+        hash *= 0x100000001b3L;
+      }
+      hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+      hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+      return hash ^ (hash >>> 31);
+    }
+  }
+}
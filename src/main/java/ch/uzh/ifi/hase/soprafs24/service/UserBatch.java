@@ -0,0 +1,28 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.List;
+
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+
+/**
+ * The users of a batch lookup in the order their ids were requested, and the
+ * requested ids that belong to no user.
+ */
+public class UserBatch {
+
+  private final List<UserProfile> users;
+  private final List<Long> missingIds;
+
+  public UserBatch(List<UserProfile> users, List<Long> missingIds) {
+    this.users = users;
+    this.missingIds = missingIds;
+  }
+
+  public List<UserProfile> getUsers() {
+    return users;
+  }
+
+  public List<Long> getMissingIds() {
+    return missingIds;
+  }
+}
@@ -0,0 +1,35 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.List;
+
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+
+/**
+ * Users written since a delta sync cursor, in the order they were written.
+ * cursor is passed as "since" with the next sync; hasMore tells the client
+ * to sync again right away instead of waiting for its next interval.
+ */
+public class UserChanges {
+
+  private final List<UserProfile> users;
+  private final String cursor;
+  private final boolean hasMore;
+
+  UserChanges(List<UserProfile> users, String cursor, boolean hasMore) {
+    this.users = users;
+    this.cursor = cursor;
+    this.hasMore = hasMore;
+  }
+
+  public List<UserProfile> getUsers() {
+    return users;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  public boolean isHasMore() {
+    return hasMore;
+  }
+}
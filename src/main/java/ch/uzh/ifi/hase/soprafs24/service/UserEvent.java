@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+
+/**
+ * A change of a user, published by the UserService and pushed to the
+ * subscribers of GET /users/events once the transaction has committed.
+ */
+public class UserEvent {
+
+  private final UserEventType type;
+  private final Long id;
+  private final String username;
+  private final String name;
+  private final UserStatus status;
+  private final Integer count;
+
+  UserEvent(UserEventType type, User user) {
+    this(type, user, user.getStatus());
+  }
+
+  UserEvent(UserEventType type, User user, UserStatus status) {
+    this.type = type;
+    this.id = user.getId();
+    this.username = user.getUsername();
+    this.name = user.getName();
+    this.status = status;
+    this.count = null;
+  }
+
+  // for changes where only the id of the user is at hand, e.g. an expired session
+  UserEvent(UserEventType type, Long id, UserStatus status) {
+    this(type, id, null, status);
+  }
+
+  // for writes that never load the user, e.g. a partial update
+  UserEvent(UserEventType type, Long id, String username, UserStatus status) {
+    this.type = type;
+    this.id = id;
+    this.username = username;
+    this.name = null;
+    this.status = status;
+    this.count = null;
+  }
+
+  // for a bulk import: one event for all users it created instead of one per row
+  UserEvent(UserEventType type, int count) {
+    this.type = type;
+    this.id = null;
+    this.username = null;
+    this.name = null;
+    this.status = null;
+    this.count = count;
+  }
+
+  public UserEventType getType() {
+    return type;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Integer getCount() {
+    return count;
+  }
+
+  @Override
+  public String toString() {
+    return count == null ? type + " " + id : type + " " + count;
+  }
+}
@@ -0,0 +1,197 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * User Event Broadcaster
+ * Pushes every committed UserEvent to all subscribers of GET /users/events
+ * as a Server-Sent Event. Each event is encoded to JSON once and put into a
+ * bounded queue per subscriber; a small pool of threads writes the queues
+ * out, one subscriber at a time per thread. The request that caused the
+ * change never waits for a client. A blocking write to a slow client only
+ * holds the thread that drains its queue, and a subscriber whose queue
+ * overflows is disconnected (its EventSource reconnects and reloads) instead
+ * of buffering without limit. Subscribers whose connection is gone are
+ * dropped on the next send.
+ */
+@Component
+public class UserEventBroadcaster {
+
+  private final Logger log = LoggerFactory.getLogger(UserEventBroadcaster.class);
+
+  private final ObjectMapper objectMapper;
+
+  private final long timeout;
+
+  private final int queueSize;
+
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+  private final ExecutorService sendExecutor;
+
+  private final Counter lagging = Metrics.counter("user.events.disconnected", "reason", "lagging");
+
+  public UserEventBroadcaster(ObjectMapper objectMapper,
+                              @Value("${users.events.timeout:1800000}") long timeout,
+                              @Value("${users.events.queue-size:256}") int queueSize,
+                              @Value("${users.events.send-threads:4}") int sendThreads) {
+    this.objectMapper = objectMapper;
+    this.timeout = timeout;
+    this.queueSize = queueSize;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.sendExecutor = Executors.newFixedThreadPool(sendThreads, runnable -> {
+      Thread thread = new Thread(runnable, "user-events-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    Metrics.gaugeCollectionSize("user.events.subscribers", Tags.empty(), subscribers);
+  }
+
+  public SseEmitter subscribe() {
+    // the client (EventSource) reconnects on its own once the timeout has passed
+    SseEmitter emitter = new SseEmitter(timeout);
+    Subscriber subscriber = new Subscriber(emitter);
+    emitter.onCompletion(() -> subscribers.remove(subscriber));
+    emitter.onTimeout(() -> subscribers.remove(subscriber));
+    emitter.onError(e -> subscribers.remove(subscriber));
+    subscribers.add(subscriber);
+    return emitter;
+  }
+
+  // only changes that were actually committed are pushed, events outside of a transaction right away
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserEvent(UserEvent event) {
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    String data;
+    try {
+      data = objectMapper.writeValueAsString(event);
+    }
+    catch (JsonProcessingException e) {
+      log.warn("Could not encode {}", event, e);
+      return;
+    }
+    send(() -> SseEmitter.event().name(event.getType().name()).data(data));
+  }
+
+  // comment lines keep proxies from closing idle connections and reveal dead ones
+  @Scheduled(fixedDelayString = "${users.events.keep-alive:15000}")
+  public void keepAlive() {
+    send(() -> SseEmitter.event().comment("keep-alive"));
+  }
+
+  // a builder can only be sent once, building one per subscriber only copies the already encoded data
+  private void send(Supplier<SseEmitter.SseEventBuilder> event) {
+    for (Subscriber subscriber : subscribers) {
+      subscriber.enqueue(event);
+    }
+  }
+
+  private void disconnect(Subscriber subscriber, Exception cause) {
+    subscribers.remove(subscriber);
+    if (cause == null) {
+      subscriber.emitter.complete();
+    }
+    else {
+      subscriber.emitter.completeWithError(cause);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    sendExecutor.shutdownNow();
+    for (Subscriber subscriber : subscribers) {
+      subscriber.emitter.complete();
+    }
+    subscribers.clear();
+  }
+
+  private final class Subscriber {
+
+    private final SseEmitter emitter;
+
+    private final BlockingQueue<Supplier<SseEmitter.SseEventBuilder>> queue = new ArrayBlockingQueue<>(queueSize);
+
+    // at most one thread writes to the emitter at a time, in queue order
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    Subscriber(SseEmitter emitter) {
+      this.emitter = emitter;
+    }
+
+    void enqueue(Supplier<SseEmitter.SseEventBuilder> event) {
+      if (!queue.offer(event)) {
+        lagging.increment();
+        log.debug("Disconnecting a subscriber that is {} events behind", queueSize);
+        disconnect(this, null);
+        return;
+      }
+      scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+      if (draining.compareAndSet(false, true)) {
+        try {
+          sendExecutor.execute(this::drain);
+        }
+        catch (RejectedExecutionException e) {
+          // shutting down
+          draining.set(false);
+        }
+      }
+    }
+
+    private void drain() {
+      try {
+        // only what was queued when the turn started, so one busy subscriber cannot keep a thread forever
+        for (int i = queue.size(); i > 0; i--) {
+          Supplier<SseEmitter.SseEventBuilder> event = queue.poll();
+          if (event == null) {
+            break;
+          }
+          emitter.send(event.get());
+        }
+      }
+      catch (IOException | IllegalStateException e) {
+        queue.clear();
+        disconnect(this, e);
+        return;
+      }
+      finally {
+        draining.set(false);
+      }
+      // events queued during the turn or after the last poll
+      if (!queue.isEmpty()) {
+        scheduleDrain();
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserImportStatus;
+
+/**
+ * Outcome of importing one row of a bulk user import. index is the position
+ * of the row in the request, id is only set for created users.
+ */
+public class UserImportResult {
+
+  private final int index;
+  private final Long id;
+  private final String username;
+  private final UserImportStatus status;
+  private final String message;
+
+  UserImportResult(int index, Long id, String username, UserImportStatus status, String message) {
+    this.index = index;
+    this.id = id;
+    this.username = username;
+    this.status = status;
+    this.message = message;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public UserImportStatus getStatus() {
+    return status;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+}
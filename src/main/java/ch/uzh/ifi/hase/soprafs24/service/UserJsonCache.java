@@ -0,0 +1,95 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+
+/**
+ * User JSON Cache
+ * Keeps the UserGetDTO JSON of recently read users as UTF-8 bytes, ready to be
+ * written to a response or concatenated into the user list. An entry belongs
+ * to a user id and is only valid for the change version and the displayed
+ * status it was serialized with; every write to a user moves its change
+ * version, so a stale entry is never served even if an invalidation is
+ * missed. The UserService still drops entries on writes to free their memory
+ * early. The cache is bounded by the total size of the bytes it holds.
+ */
+@Component
+public class UserJsonCache {
+
+  // rough size of the key, the entry and the cache node next to the bytes themselves
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private final ObjectWriter writer;
+
+  private final Cache<Long, Entry> entries;
+
+  public UserJsonCache(ObjectMapper objectMapper,
+                       @Value("${users.json-cache.maximum-bytes:33554432}") long maximumBytes) {
+    this.writer = objectMapper.writerFor(UserGetDTO.class);
+    this.entries = Caffeine.newBuilder()
+        .maximumWeight(maximumBytes)
+        .weigher((Long id, Entry entry) -> entry.json.length + ENTRY_OVERHEAD)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(Metrics.globalRegistry, entries, "user.json");
+  }
+
+  /**
+   * @param presence the status known to the PresenceRegistry, or null if the
+   *        stored status of the profile is accurate
+   * @return the JSON of the user as GET /users/{id} returns it; callers must
+   *         not modify the array
+   */
+  public byte[] get(UserProfile userProfile, UserStatus presence) {
+    UserStatus status = presence != null ? presence : userProfile.getStatus();
+    Entry entry = entries.getIfPresent(userProfile.getId());
+    if (entry != null && entry.changeVersion == userProfile.getChangeVersion() && entry.status == status) {
+      return entry.json;
+    }
+
+    UserGetDTO userGetDTO = DTOMapper.INSTANCE.convertUserProfileToUserGetDTO(userProfile);
+    userGetDTO.setStatus(status);
+    byte[] json;
+    try {
+      json = writer.writeValueAsBytes(userGetDTO);
+    }
+    catch (JsonProcessingException e) {
+      throw new IllegalStateException("Could not serialize user " + userProfile.getId(), e);
+    }
+    entries.put(userProfile.getId(), new Entry(userProfile.getChangeVersion(), status, json));
+    return json;
+  }
+
+  public void invalidate(Long userId) {
+    entries.invalidate(userId);
+  }
+
+  private static final class Entry {
+
+    private final long changeVersion;
+
+    private final UserStatus status;
+
+    private final byte[] json;
+
+    Entry(long changeVersion, UserStatus status, byte[] json) {
+      this.changeVersion = changeVersion;
+      this.status = status;
+      this.json = json;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+
+/**
+ * User Search Index
+ * Sorted in-memory index over the usernames and names of all users, used for
+ * prefix search. Every user is indexed under its lower-cased username, its
+ * lower-cased name and every word of its name, so "ali" finds "alice" as well
+ * as "Bob Alison". A prefix query is a range scan over the sorted keys.
+ * The index only returns ids; the caller loads the users from the database,
+ * so entries of users that were deleted or never committed are dropped there.
+ */
+@Component
+public class UserSearchIndex {
+
+  // separates the term from the id in a key, sorts before every character a term can contain
+  private static final char SEPARATOR = '\u0000';
+
+  private final Logger log = LoggerFactory.getLogger(UserSearchIndex.class);
+
+  private final UserRepository userRepository;
+
+  // upper bound of keys looked at per query, keeps short prefixes like "a" cheap at a million users
+  private final int maxCandidates;
+
+  // "term\0id" -> id, sorted so all terms with a given prefix are one contiguous range
+  private final ConcurrentSkipListMap<String, Long> terms = new ConcurrentSkipListMap<>();
+
+  // id -> indexed username and name, needed to rank hits and to remove stale terms on a rename
+  private final Map<Long, Document> documents = new ConcurrentHashMap<>();
+
+  public UserSearchIndex(@Qualifier("userRepository") UserRepository userRepository,
+                         @Value("${users.search.max-candidates:1000}") int maxCandidates) {
+    this.userRepository = userRepository;
+    this.maxCandidates = maxCandidates;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  @Transactional(readOnly = true)
+  public void load() {
+    try (Stream<UserProfile> userProfiles = userRepository.streamAllProfiles()) {
+      userProfiles.forEach(userProfile -> add(userProfile.getId(), userProfile.getUsername(), userProfile.getName()));
+    }
+    log.info("User search index is ready with {} users", documents.size());
+  }
+
+  public void add(User user) {
+    add(user.getId(), user.getUsername(), user.getName());
+  }
+
+  /**
+   * Indexes the user under its current username and name, replacing whatever
+   * was indexed for the same id before.
+   */
+  public void add(Long id, String username, String name) {
+    if (id == null) {
+      return;
+    }
+    Document document = new Document(id, normalize(username), normalize(name));
+    documents.compute(id, (key, previous) -> {
+      replaceTerms(key, previous, document);
+      return document;
+    });
+  }
+
+  /**
+   * Indexes the user under a new username and the name it was indexed with
+   * before, for writes that do not know the name.
+   */
+  public void updateUsername(Long id, String username) {
+    documents.computeIfPresent(id, (key, previous) -> {
+      Document document = new Document(key, normalize(username), previous.name);
+      replaceTerms(key, previous, document);
+      return document;
+    });
+  }
+
+  private void replaceTerms(Long id, Document previous, Document document) {
+    if (previous != null) {
+      for (String term : previous.terms()) {
+        terms.remove(term + SEPARATOR + id);
+      }
+    }
+    for (String term : document.terms()) {
+      terms.put(term + SEPARATOR + id, id);
+    }
+  }
+
+  /**
+   * Returns the ids of at most limit users whose username or name (or a word
+   * of it) starts with the query. Exact username matches rank first, then
+   * exact name matches, then username prefixes, then name prefixes; within a
+   * rank shorter values come first.
+   */
+  public List<Long> search(String query, int limit) {
+    String prefix = normalize(query);
+    if (prefix.isEmpty()) {
+      return List.of();
+    }
+
+    NavigableMap<String, Long> range = terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    Set<Long> candidates = new LinkedHashSet<>();
+    for (Long id : range.values()) {
+      if (candidates.size() >= maxCandidates) {
+        break;
+      }
+      candidates.add(id);
+    }
+
+    List<Document> hits = new ArrayList<>(candidates.size());
+    for (Long id : candidates) {
+      Document document = documents.get(id);
+      if (document != null) {
+        hits.add(document);
+      }
+    }
+    hits.sort(Comparator.<Document>comparingInt(document -> document.rank(prefix))
+        .thenComparingInt(Document::length)
+        .thenComparingLong(Document::getId));
+
+    List<Long> ids = new ArrayList<>(Math.min(limit, hits.size()));
+    for (int i = 0; i < hits.size() && ids.size() < limit; i++) {
+      ids.add(hits.get(i).getId());
+    }
+    return ids;
+  }
+
+  private static String normalize(String value) {
+    return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+  }
+
+  private static final class Document {
+
+    private final long id;
+    private final String username;
+    private final String name;
+
+    Document(long id, String username, String name) {
+      this.id = id;
+      this.username = username;
+      this.name = name;
+    }
+
+    long getId() {
+      return id;
+    }
+
+    Set<String> terms() {
+      Set<String> terms = new LinkedHashSet<>();
+      if (!username.isEmpty()) {
+        terms.add(username);
+      }
+      if (!name.isEmpty()) {
+        terms.add(name);
+        for (String word : name.split("\\s+")) {
+          if (!word.isEmpty()) {
+            terms.add(word);
+          }
+        }
+      }
+      return terms;
+    }
+
+    int rank(String prefix) {
+      if (username.equals(prefix)) {
+        return 0;
+      }
+      if (name.equals(prefix)) {
+        return 1;
+      }
+      if (username.startsWith(prefix)) {
+        return 2;
+      }
+      if (name.startsWith(prefix)) {
+        return 3;
+      }
+      return 4;
+    }
+
+    int length() {
+      return Math.min(username.length(), name.isEmpty() ? Integer.MAX_VALUE : name.length());
+    }
+  }
+}
@@ -1,22 +1,51 @@
 package ch.uzh.ifi.hase.soprafs24.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.http.HttpStatus;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.server.ResponseStatusException;
 
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs24.constant.UserField;
+import ch.uzh.ifi.hase.soprafs24.constant.UserImportStatus;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ApiException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.BadRequestException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ConflictException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.NotFoundException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.PreconditionFailedException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.UnauthorizedException;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserVersion;
 
 /**
  * User Service
@@ -30,17 +59,408 @@ import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
 @Transactional
 public class UserService {
 
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  public static final int MAX_SEARCH_LIMIT = 100;
+
+  public static final int MAX_IMPORT_SIZE = 100000;
+
+  public static final int MAX_BATCH_SIZE = 10000;
+
+  // rows per JDBC batch, matches hibernate.jdbc.batch_size and the id allocation size
+  public static final int IMPORT_BATCH_SIZE = 50;
+
+  // values per IN list of the set-wise uniqueness queries
+  private static final int IN_CLAUSE_SIZE = 1000;
+
+  // expected errors without request specific details, templates whose copy() is thrown
+
+  private static final ApiException PAGE_LIMIT_OUT_OF_RANGE =
+      new BadRequestException("The limit has to be between 1 and " + MAX_PAGE_SIZE + ".");
+
+  private static final ApiException INVALID_CURSOR = new BadRequestException("The cursor is not valid.");
+
+  private static final ApiException FIELDS_EMPTY = new BadRequestException("At least one field must be selected.");
+
+  private static final ApiException IDS_EMPTY = new BadRequestException("At least one id must be given.");
+
+  private static final ApiException BATCH_SIZE_OUT_OF_RANGE =
+      new BadRequestException("At most " + MAX_BATCH_SIZE + " ids can be looked up at once.");
+
+  private static final ApiException SEARCH_QUERY_EMPTY = new BadRequestException("The search query must not be empty.");
+
+  private static final ApiException SEARCH_LIMIT_OUT_OF_RANGE =
+      new BadRequestException("The limit has to be between 1 and " + MAX_SEARCH_LIMIT + ".");
+
+  private static final ApiException REQUIRED_FIELDS_MISSING =
+      new BadRequestException("Name, Username, and Password are required.");
+
+  private static final ApiException IMPORT_TOO_LARGE =
+      new BadRequestException("At most " + MAX_IMPORT_SIZE + " users can be imported at once.");
+
+  private static final ApiException NOTHING_TO_UPDATE = new BadRequestException("Username or birthday must be given.");
+
+  private static final ApiException MISSING_TOKEN = new UnauthorizedException("Missing token.");
+
+  private static final ApiException INVALID_TOKEN = new UnauthorizedException("Invalid token.");
+
+  private static final ApiException INCORRECT_PASSWORD = new UnauthorizedException("Incorrect Password.");
+
+  private static final ApiException UNKNOWN_USERNAME = new NotFoundException("Unknown Username, register now!");
+
+  private static final ApiException USERNAME_AND_NAME_NOT_UNIQUE = new ConflictException(
+      "The username and the name provided are not unique. Therefore, the user could not be created!");
+
+  private static final ApiException USERNAME_NOT_UNIQUE = new ConflictException(
+      "The username provided is not unique. Therefore, the user could not be created!");
+
+  private static final ApiException NAME_NOT_UNIQUE = new ConflictException(
+      "The name provided is not unique. Therefore, the user could not be created!");
+
+  private static final ApiException USERNAME_OR_NAME_TAKEN = new ConflictException(
+      "The username or the name provided is not unique. Therefore, the user could not be created!");
+
+  private static final ApiException USERNAME_ALREADY_TAKEN = new ConflictException("Username is already taken!");
+
+  private static final ApiException USER_MODIFIED =
+      new PreconditionFailedException("The user was modified in the meantime, reload it and try again.");
+
+  // tells list ETags of different runs apart, the counters they are made of start at 0 again after a restart
+  private static final long EPOCH = System.currentTimeMillis();
+
+  private static final ApiException IMPORT_RACED =
+      new ConflictException("Some of the users were registered concurrently, please retry the import.");
+
   private final Logger log = LoggerFactory.getLogger(UserService.class);
 
+  private final Counter registrations = Metrics.counter("user.registrations");
+
+  private final Counter logins = Metrics.counter("user.logins");
+
+  private final Counter logouts = Metrics.counter("user.logouts");
+
   private final UserRepository userRepository;
 
+  private final TokenIndex tokenIndex;
+
+  private final PresenceRegistry presenceRegistry;
+
+  private final UniquenessFilter uniquenessFilter;
+
+  private final UserSearchIndex userSearchIndex;
+
+  private final ApplicationEventPublisher eventPublisher;
+
+  private final SessionExpiry sessionExpiry;
+
+  private final TokenGenerator tokenGenerator;
+
+  private final SignedTokenCodec signedTokenCodec;
+
+  private final ChangeVersionClock changeVersionClock;
+
+  private final UserJsonCache userJsonCache;
+
+  // concurrent single lookups of GET /users/{id} share one IN query
+  private final BatchLoader<Long, UserProfile> profileLoader;
+
+  // identical concurrent reads share one query; keyed by the completed writes as well, so a read that
+  // starts after a write has committed never joins a query that started before it
+  private final SingleFlight<Map.Entry<Long, Long>, UserProfile> profileFlight = new SingleFlight<>("profile");
+
+  private final SingleFlight<Map.Entry<Long, Long>, UserVersion> versionFlight = new SingleFlight<>("version");
+
+  private final SingleFlight<Long, List<UserProfile>> profilesFlight = new SingleFlight<>("profiles");
+
   @Autowired
-  public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+  public UserService(@Qualifier("userRepository") UserRepository userRepository, TokenIndex tokenIndex,
+                     PresenceRegistry presenceRegistry, UniquenessFilter uniquenessFilter,
+                     UserSearchIndex userSearchIndex, ApplicationEventPublisher eventPublisher,
+                     SessionExpiry sessionExpiry, TokenGenerator tokenGenerator,
+                     SignedTokenCodec signedTokenCodec, ChangeVersionClock changeVersionClock,
+                     UserJsonCache userJsonCache) {
     this.userRepository = userRepository;
+    this.tokenIndex = tokenIndex;
+    this.presenceRegistry = presenceRegistry;
+    this.uniquenessFilter = uniquenessFilter;
+    this.userSearchIndex = userSearchIndex;
+    this.eventPublisher = eventPublisher;
+    this.sessionExpiry = sessionExpiry;
+    this.tokenGenerator = tokenGenerator;
+    this.signedTokenCodec = signedTokenCodec;
+    this.changeVersionClock = changeVersionClock;
+    this.userJsonCache = userJsonCache;
+    this.profileLoader = new BatchLoader<>(this::findProfilesById, IN_CLAUSE_SIZE);
+  }
+
+  // the read methods only select UserProfile projections, so nothing has to be dirty checked.
+  // The coalesced reads run without a transaction of their own: a caller that waits for the read of
+  // another one must not hold a JDBC connection meanwhile, the repository query opens its own.
+
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  @Timed("user.service")
+  public List<UserProfile> getUserProfiles() {
+    return profilesFlight.execute(changeVersionClock.completedWrites(),
+        () -> Collections.unmodifiableList(userRepository.findAllProfiles()));
+  }
+
+  /**
+   * Returns at most limit users with an id greater than the given cursor,
+   * ordered by id. Passing the id of the last user of a page as the next
+   * cursor walks the whole table without OFFSET scans.
+   */
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public List<UserProfile> getUserProfilesAfter(Long after, int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw PAGE_LIMIT_OUT_OF_RANGE.copy();
+    }
+    long cursor = after == null ? 0L : after;
+    return userRepository.findProfilesAfter(cursor, PageRequest.of(0, limit));
+  }
+
+  /**
+   * Like getUserProfiles, but only with the given comma separated fields (see
+   * UserField) plus the id, selected as such from the database.
+   */
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public List<Map<String, Object>> getUserFields(String fields) {
+    return findFields(parseFields(fields), null, 0);
+  }
+
+  // like getUserProfilesAfter, but only with the given fields
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public List<Map<String, Object>> getUserFieldsAfter(String fields, Long after, int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw PAGE_LIMIT_OUT_OF_RANGE.copy();
+    }
+    return findFields(parseFields(fields), after, limit);
+  }
+
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public Map<String, Object> getUserFields(Long id, String fields) {
+    Set<UserField> selectedFields = parseFields(fields);
+    Map<String, Object> row = userRepository.findFieldsById(selectedFields, id)
+        .orElseThrow(() -> new NotFoundException("User with ID " + id + " was not found"));
+    if (selectedFields.contains(UserField.STATUS)) {
+      applyPresence(row);
+    }
+    return row;
+  }
+
+  private List<Map<String, Object>> findFields(Set<UserField> selectedFields, Long after, int limit) {
+    List<Map<String, Object>> rows = userRepository.findFieldsAfter(selectedFields, after, limit);
+    if (selectedFields.contains(UserField.STATUS)) {
+      rows.forEach(this::applyPresence);
+    }
+    return rows;
+  }
+
+  private static Set<UserField> parseFields(String fields) {
+    Set<UserField> selectedFields = EnumSet.noneOf(UserField.class);
+    for (String property : fields.split(",")) {
+      if (property.isBlank()) {
+        continue;
+      }
+      UserField field = UserField.fromProperty(property.trim());
+      if (field == null) {
+        throw new BadRequestException("Unknown field: " + property.trim());
+      }
+      selectedFields.add(field);
+    }
+    if (selectedFields.isEmpty()) {
+      throw FIELDS_EMPTY.copy();
+    }
+    return selectedFields;
+  }
+
+  private void applyPresence(Map<String, Object> row) {
+    UserStatus status = presenceRegistry.getStatus((Long) row.get(UserField.ID.getProperty()));
+    if (status != null) {
+      row.put(UserField.STATUS.getProperty(), status);
+    }
+  }
+
+  /**
+   * Streams all users in id order to the given action without ever holding
+   * more than one of them in memory.
+   */
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public void forEachUserProfile(Consumer<UserProfile> action) {
+    try (Stream<UserProfile> userProfiles = userRepository.streamAllProfiles()) {
+      userProfiles.forEach(action);
+    }
+  }
+
+  /**
+   * Finds users whose username or name starts with the query, best matches
+   * first. The ranking comes from the UserSearchIndex; only the hits are
+   * loaded from the database, with one query.
+   */
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public List<UserProfile> searchUserProfiles(String query, int limit) {
+    if (query == null || query.isBlank()) {
+      throw SEARCH_QUERY_EMPTY.copy();
+    }
+    if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+      throw SEARCH_LIMIT_OUT_OF_RANGE.copy();
+    }
+
+    List<Long> ids = userSearchIndex.search(query, limit);
+    if (ids.isEmpty()) {
+      return List.of();
+    }
+    Map<Long, UserProfile> profilesById = new HashMap<>();
+    for (UserProfile userProfile : userRepository.findProfilesByIdIn(ids)) {
+      profilesById.put(userProfile.getId(), userProfile);
+    }
+
+    // keep the ranking of the index, ids that are no longer in the database are skipped
+    List<UserProfile> userProfiles = new ArrayList<>(profilesById.size());
+    for (Long id : ids) {
+      UserProfile userProfile = profilesById.get(id);
+      if (userProfile != null) {
+        userProfiles.add(userProfile);
+      }
+    }
+    return userProfiles;
+  }
+
+  /**
+   * Returns at most limit users written after the given delta sync cursor,
+   * in write order, together with the cursor for the next sync. A cursor is
+   * either a change version ("all writes up to it seen") or a version and a
+   * user id ("seen up to this user of that version"), so a page can end in
+   * the middle of a bulk write. Users whose write has not committed yet are
+   * never skipped: the cursor stops below the oldest running write.
+   *
+   * @param since the cursor of the previous sync, or null for a full sync
+   */
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public UserChanges getUserChanges(String since, int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw PAGE_LIMIT_OUT_OF_RANGE.copy();
+    }
+    long sinceVersion = 0L;
+    long sinceId = Long.MAX_VALUE;
+    if (since != null && !since.isBlank()) {
+      try {
+        int dot = since.indexOf('.');
+        sinceVersion = Long.parseLong(dot < 0 ? since : since.substring(0, dot));
+        sinceId = dot < 0 ? Long.MAX_VALUE : Long.parseLong(since.substring(dot + 1));
+      }
+      catch (NumberFormatException e) {
+        throw INVALID_CURSOR.copy();
+      }
+    }
+
+    long until = changeVersionClock.stableVersion();
+    List<UserProfile> userProfiles = userRepository.findProfilesChangedAfter(sinceVersion, sinceId, until,
+        PageRequest.of(0, limit));
+    if (userProfiles.size() == limit) {
+      UserProfile last = userProfiles.get(userProfiles.size() - 1);
+      return new UserChanges(userProfiles, last.getChangeVersion() + "." + last.getId(), true);
+    }
+    // everything up to until has been returned, unless the client is already ahead of it
+    String cursor = until >= sinceVersion ? String.valueOf(until) : since;
+    return new UserChanges(userProfiles, cursor, false);
+  }
+
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  @Timed("user.service")
+  public UserProfile getUserProfile(Long id) {
+    UserProfile userProfile = profileFlight.execute(Map.entry(id, changeVersionClock.completedWrites()),
+        () -> profileLoader.load(id));
+    if (userProfile == null) {
+      throw new NotFoundException("User with ID " + id + " was not found");
+    }
+    return userProfile;
+  }
+
+  /**
+   * Looks up many users at once with IN queries of at most IN_CLAUSE_SIZE ids.
+   * Duplicate ids are answered once.
+   *
+   * @return the users in the order of the ids, and the ids without a user
+   */
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public UserBatch getUserProfilesByIds(List<Long> ids) {
+    if (ids.isEmpty()) {
+      throw IDS_EMPTY.copy();
+    }
+    if (ids.size() > MAX_BATCH_SIZE) {
+      throw BATCH_SIZE_OUT_OF_RANGE.copy();
+    }
+    Set<Long> distinctIds = new LinkedHashSet<>(ids);
+    Map<Long, UserProfile> profilesById = profileLoader.loadMany(distinctIds);
+
+    List<UserProfile> userProfiles = new ArrayList<>(profilesById.size());
+    List<Long> missingIds = new ArrayList<>();
+    for (Long id : distinctIds) {
+      UserProfile userProfile = profilesById.get(id);
+      if (userProfile != null) {
+        userProfiles.add(userProfile);
+      }
+      else {
+        missingIds.add(id);
+      }
+    }
+    return new UserBatch(userProfiles, missingIds);
+  }
+
+  // the batch function of the profileLoader; a batch of one keeps using the query cache
+  private Map<Long, UserProfile> findProfilesById(Collection<Long> ids) {
+    Map<Long, UserProfile> profilesById = new HashMap<>();
+    if (ids.size() == 1) {
+      userRepository.findProfileById(ids.iterator().next())
+          .ifPresent(userProfile -> profilesById.put(userProfile.getId(), userProfile));
+      return profilesById;
+    }
+    for (UserProfile userProfile : userRepository.findProfilesByIdIn(ids)) {
+      profilesById.put(userProfile.getId(), userProfile);
+    }
+    return profilesById;
+  }
+
+  /**
+   * The ETag of a single user, computed from its version and the status it is
+   * shown with, without loading the user itself.
+   */
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  @Timed("user.service")
+  public String getUserETag(Long id) {
+    UserVersion userVersion = versionFlight.execute(Map.entry(id, changeVersionClock.completedWrites()),
+        () -> userRepository.findVersionById(id).orElse(null));
+    if (userVersion == null) {
+      throw new NotFoundException("User with ID " + id + " was not found");
+    }
+    UserStatus status = presenceRegistry.getStatus(id);
+    return eTag(userVersion.getVersion(), status != null ? status : userVersion.getStatus());
   }
 
-  public List<User> getUsers() {
-    return this.userRepository.findAll();
+  /**
+   * The ETag of the whole user list. It changes with every completed write to
+   * the table and every status change in the PresenceRegistry, so it never
+   * needs a query.
+   */
+  public String getUsersETag() {
+    return "\"" + EPOCH + "-" + changeVersionClock.completedWrites() + "-" + presenceRegistry.getChangeCount() + "\"";
+  }
+
+  // the ETag of a user that has just been loaded or written
+  public String getUserETag(User user) {
+    return eTag(user.getVersion(), getPresenceOrStored(user));
+  }
+
+  private static String eTag(long version, UserStatus status) {
+    return "\"" + version + "-" + status + "\"";
   }
 
   // public Optional<User> findById(Long Id) {
@@ -48,51 +468,263 @@ public class UserService {
   //   return userById;
   // }
 
+  @Timed("user.service")
   public User findById(Long id) {
     return userRepository.findById(id)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User with ID " + id + " was not found"));
+        .orElseThrow(() -> new NotFoundException("User with ID " + id + " was not found"));
   }
 
+  @Timed("user.service")
   public User createUser(User newUser) {
     if (newUser.getName() == null || newUser.getUsername() == null || newUser.getPassword() == null) {
-      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Name, Username, and Password are required.");
+      throw REQUIRED_FIELDS_MISSING.copy();
     }
 
-    newUser.setToken(UUID.randomUUID().toString());
+    newUser.setToken(tokenGenerator.generate());
     Date creationDate = new Date();
     newUser.setCreationDate(creationDate);
     newUser.setStatus(UserStatus.OFFLINE);
-    checkIfUserExists(newUser);
-    // saves the given entity but data is only persisted in the database once
-    // flush() is called
+    newUser.setChangeVersion(changeVersionClock.next());
 
-    checkIfUserExists(newUser);
+    // only names the filter has (maybe) seen before need the uniqueness queries
+    if (uniquenessFilter.mightBeTaken(newUser.getUsername(), newUser.getName())) {
+      checkIfUserExists(newUser);
+    }
 
-    newUser = userRepository.save(newUser);
-    userRepository.flush();
+    // saves the given entity but data is only persisted in the database once
+    // flush() is called; flushing here lets a concurrent registration of the
+    // same username/name fail on the unique constraint right away
+    try {
+      newUser = userRepository.save(newUser);
+      userRepository.flush();
+    }
+    catch (DataIntegrityViolationException e) {
+      throw USERNAME_OR_NAME_TAKEN.copy();
+    }
+    uniquenessFilter.add(newUser);
+    userSearchIndex.add(newUser);
+    eventPublisher.publishEvent(new UserEvent(UserEventType.CREATED, newUser));
+    registrations.increment();
 
     log.debug("Created Information for User: {}", newUser);
     return newUser;
   }
 
+  /**
+   * Creates many users in one transaction. Uniqueness is checked for the
+   * whole request at once (against the database and within the request) and
+   * the accepted users are inserted in JDBC batches. Rows that cannot be
+   * created are reported instead of failing the whole import.
+   *
+   * @param newUsers the users to create, in request order
+   * @return one result per given user, in the same order
+   */
+  @Timed("user.service")
+  public List<UserImportResult> importUsers(List<User> newUsers) {
+    if (newUsers.size() > MAX_IMPORT_SIZE) {
+      throw IMPORT_TOO_LARGE.copy();
+    }
+
+    Set<String> usernames = new HashSet<>();
+    Set<String> names = new HashSet<>();
+    for (User newUser : newUsers) {
+      usernames.add(newUser.getUsername());
+      names.add(newUser.getName());
+    }
+    usernames.remove(null);
+    names.remove(null);
+    Set<String> takenUsernames = findTaken(usernames, userRepository::findUsernamesIn);
+    Set<String> takenNames = findTaken(names, userRepository::findNamesIn);
+
+    UserImportResult[] results = new UserImportResult[newUsers.size()];
+    // the whole import is one write, so all its users share one change version
+    long changeVersion = changeVersionClock.next();
+    List<User> accepted = new ArrayList<>();
+    List<Integer> acceptedIndexes = new ArrayList<>();
+    Date creationDate = new Date();
+
+    for (int i = 0; i < newUsers.size(); i++) {
+      User newUser = newUsers.get(i);
+      String username = newUser.getUsername();
+
+      if (newUser.getName() == null || username == null || newUser.getPassword() == null) {
+        results[i] = new UserImportResult(i, null, username, UserImportStatus.INVALID,
+            "Name, Username, and Password are required.");
+      }
+      // add() doubles as the check for duplicates within the request
+      else if (!takenUsernames.add(username)) {
+        results[i] = new UserImportResult(i, null, username, UserImportStatus.CONFLICT,
+            "The username provided is not unique.");
+      }
+      else if (!takenNames.add(newUser.getName())) {
+        results[i] = new UserImportResult(i, null, username, UserImportStatus.CONFLICT,
+            "The name provided is not unique.");
+      }
+      else {
+        newUser.setToken(tokenGenerator.generate());
+        newUser.setCreationDate(creationDate);
+        newUser.setStatus(UserStatus.OFFLINE);
+        newUser.setChangeVersion(changeVersion);
+        accepted.add(newUser);
+        acceptedIndexes.add(i);
+      }
+    }
+
+    try {
+      userRepository.persistInBatches(accepted, IMPORT_BATCH_SIZE);
+    }
+    catch (DataIntegrityViolationException e) {
+      throw IMPORT_RACED.copy();
+    }
+
+    for (int i = 0; i < accepted.size(); i++) {
+      User createdUser = accepted.get(i);
+      int index = acceptedIndexes.get(i);
+      results[index] = new UserImportResult(index, createdUser.getId(), createdUser.getUsername(),
+          UserImportStatus.CREATED, null);
+      uniquenessFilter.add(createdUser);
+      userSearchIndex.add(createdUser);
+    }
+    // subscribers reload the list once instead of receiving up to MAX_IMPORT_SIZE events
+    if (!accepted.isEmpty()) {
+      eventPublisher.publishEvent(new UserEvent(UserEventType.IMPORTED, accepted.size()));
+    }
+
+    registrations.increment(accepted.size());
+    log.debug("Imported {} of {} users", accepted.size(), newUsers.size());
+    return List.of(results);
+  }
+
+  /**
+   * Logs a user in with at most two statements: the SELECT that loads the user
+   * for the password check (skipped on a query cache hit) and one UPDATE of the
+   * token and status, written by dirty checking on commit. A bulk JPQL update
+   * would evict the whole User cache region instead of this one entry.
+   */
+  @Timed("user.service")
   public User logIn(User loginUser){
-    checkUserCredentials((loginUser));
-    User loggedInUser = userRepository.findByUsername(loginUser.getUsername());
+    User loggedInUser = checkUserCredentials(loginUser);
+    String previousToken = loggedInUser.getToken();
+    String token;
+    if (signedTokenCodec.isEnabled()) {
+      // like an opaque token, a new login replaces the tokens handed out before
+      signedTokenCodec.revoke(loggedInUser.getId());
+      token = signedTokenCodec.issue(loggedInUser.getId());
+    }
+    else {
+      token = tokenGenerator.generate();
+    }
+
+    loggedInUser.setToken(token);
     loggedInUser.setStatus(UserStatus.ONLINE);
-    loggedInUser.setToken(UUID.randomUUID().toString());
-    userRepository.saveAndFlush(loggedInUser);
+    loggedInUser.setChangeVersion(changeVersionClock.next());
+
+    presenceRegistry.statusWritten(loggedInUser.getId(), UserStatus.ONLINE);
+    tokenIndex.revoke(previousToken);
+    tokenIndex.register(token, loggedInUser.getId(), UserStatus.ONLINE);
+    sessionExpiry.touch(loggedInUser.getId(), token);
+    userJsonCache.invalidate(loggedInUser.getId());
+    eventPublisher.publishEvent(new UserEvent(UserEventType.STATUS_CHANGED, loggedInUser));
+    logins.increment();
     log.debug("Logged in User: {}", loggedInUser);
     return loggedInUser;
   }
 
+  @Timed("user.service")
   public void logOut(User logoutUser){
-    User loggedInUser = userRepository.findByUsername(logoutUser.getUsername());
-    loggedInUser.setStatus(UserStatus.OFFLINE);
-    userRepository.saveAndFlush(loggedInUser);
-    log.debug("Logged out User: {}", loggedInUser);
+    presenceRegistry.setStatus(logoutUser.getId(), UserStatus.OFFLINE, logoutUser.getToken());
+    tokenIndex.revoke(logoutUser.getToken());
+    signedTokenCodec.revoke(logoutUser.getId());
+    sessionExpiry.end(logoutUser.getId());
+    userJsonCache.invalidate(logoutUser.getId());
+    eventPublisher.publishEvent(new UserEvent(UserEventType.STATUS_CHANGED, logoutUser, UserStatus.OFFLINE));
+    logouts.increment();
+    log.debug("Logged out User: {}", logoutUser);
+  }
+
+  /**
+   * @return the status of the user as known to the PresenceRegistry, or null
+   *         if the stored status is still accurate
+   */
+  public UserStatus getPresence(Long userId) {
+    return presenceRegistry.getStatus(userId);
+  }
+
+  private UserStatus getPresenceOrStored(User user) {
+    UserStatus status = presenceRegistry.getStatus(user.getId());
+    return status != null ? status : user.getStatus();
+  }
+
+  /**
+   * Resolves the token of a request to the id of the logged in user it
+   * belongs to. Known tokens are answered from the TokenIndex; only tokens the
+   * index has not seen (yet) cost a query.
+   *
+   * @param token the token sent by the client
+   * @return the id of the user the token belongs to
+   * @throws org.springframework.web.server.ResponseStatusException 401 if the
+   *         token is unknown or its user is not logged in
+   */
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public Long authenticate(String token) {
+    if (token == null || token.isBlank()) {
+      throw MISSING_TOKEN.copy();
+    }
+
+    // signed tokens are checked by their signature alone, without any lookup
+    if (signedTokenCodec.isEnabled() && signedTokenCodec.isSigned(token)) {
+      Long userId = signedTokenCodec.verify(token);
+      if (userId == null) {
+        throw INVALID_TOKEN.copy();
+      }
+      return userId;
+    }
+
+    TokenIndex.Entry entry = tokenIndex.lookup(token);
+    if (entry == null) {
+      User user = userRepository.findByToken(token);
+      if (user == null) {
+        throw INVALID_TOKEN.copy();
+      }
+      entry = tokenIndex.register(token, user.getId(), getPresenceOrStored(user));
+    }
+
+    if (entry.getStatus() != UserStatus.ONLINE) {
+      throw INVALID_TOKEN.copy();
+    }
+    return entry.getUserId();
   }
 
+  /**
+   * Keeps the session of the logged in user with the given token alive for
+   * another ttl. Clients that stop calling this are logged out by the
+   * SessionExpiry.
+   *
+   * @throws org.springframework.web.server.ResponseStatusException 401 if the
+   *         token is unknown or its session has already expired
+   */
+  @Transactional(readOnly = true)
+  @Timed("user.service")
+  public void heartbeat(String token) {
+    Long userId = authenticate(token);
+    sessionExpiry.touch(userId, token);
+  }
+
+  @Timed("user.service")
   public User editUserbyUserID(User user) {
+    return editUserbyUserID(user, null);
+  }
+
+  /**
+   * Edits the user, but only if it still has the given ETag (the If-Match
+   * header of the request). Without an ETag the last write wins.
+   *
+   * @throws org.springframework.web.server.ResponseStatusException 412 if the
+   *         user has been modified since the client has read it
+   */
+  @Timed("user.service")
+  public User editUserbyUserID(User user, String ifMatch) {
 
     Long userId = user.getId();
     String username = user.getUsername();
@@ -101,15 +733,20 @@ public class UserService {
     Optional<User> optionalUser = userRepository.findById(userId);
 
     if (optionalUser.isEmpty()) { 
-        throw new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("Invalid id: %s", userId));
+        throw new NotFoundException("Invalid id: " + userId);
     }
 
     User existingUser = optionalUser.get();
 
+    if (ifMatch != null && !"*".equals(ifMatch.trim())
+        && !ifMatch.trim().equals(getUserETag(existingUser))) {
+      throw USER_MODIFIED.copy();
+    }
+
     // check if username is already taken, unless taken by user (him-)herself
     User userByUsername = userRepository.findByUsername(username);
     if (userByUsername != null && !userByUsername.getId().equals(userId)) {
-        throw new ResponseStatusException(HttpStatus.CONFLICT, "Username is already taken!");
+        throw USERNAME_ALREADY_TAKEN.copy();
     }
     
     if (username != null && !username.isBlank()) {  
@@ -120,13 +757,63 @@ public class UserService {
         existingUser.setBirthday(birthday);
     }
     
+    existingUser.setChangeVersion(changeVersionClock.next());
     userRepository.save(existingUser);
+    if (ifMatch != null) {
+      // a concurrent edit that committed after the check above bumped the version, fail with 412 instead of 409
+      try {
+        userRepository.flush();
+      }
+      catch (ObjectOptimisticLockingFailureException e) {
+        throw USER_MODIFIED.copy();
+      }
+    }
+    uniquenessFilter.add(existingUser);
+    userSearchIndex.add(existingUser);
+    userJsonCache.invalidate(existingUser.getId());
+    eventPublisher.publishEvent(new UserEvent(UserEventType.EDITED, existingUser, getPresenceOrStored(existingUser)));
     return existingUser;
 }
 
 
 
 
+  /**
+   * Changes only the given username and/or birthday of a user with a single
+   * UPDATE, without reading the user first. A taken username is reported by
+   * the unique constraint, an unknown id by the number of updated rows.
+   *
+   * @throws org.springframework.web.server.ResponseStatusException 404 if
+   *         there is no such user, 409 if the username is taken
+   */
+  @Timed("user.service")
+  public void patchUserbyUserID(User user) {
+    Long userId = user.getId();
+    String username = user.getUsername() != null && !user.getUsername().isBlank() ? user.getUsername() : null;
+    Date birthday = user.getBirthday();
+    if (username == null && birthday == null) {
+      throw NOTHING_TO_UPDATE.copy();
+    }
+
+    int updated;
+    try {
+      updated = userRepository.updateFields(userId, username, birthday, changeVersionClock.next());
+    }
+    catch (DataIntegrityViolationException e) {
+      throw USERNAME_ALREADY_TAKEN.copy();
+    }
+    if (updated == 0) {
+      throw new NotFoundException("Invalid id: " + userId);
+    }
+
+    if (username != null) {
+      uniquenessFilter.addUsername(username);
+      userSearchIndex.updateUsername(userId, username);
+    }
+    userJsonCache.invalidate(userId);
+    eventPublisher.publishEvent(new UserEvent(UserEventType.EDITED, userId, username, presenceRegistry.getStatus(userId)));
+  }
+
   /**
    * This is a helper method that will check the uniqueness criteria of the
    * username and the name
@@ -141,33 +828,37 @@ public class UserService {
     User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
     User userByName = userRepository.findByName(userToBeCreated.getName());
 
-    String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
-    
     if (userByUsername != null && userByName != null) {
-        throw new ResponseStatusException(HttpStatus.CONFLICT, 
-            String.format(baseErrorMessage, "username and the name", "are"));
+        throw USERNAME_AND_NAME_NOT_UNIQUE.copy();
     } else if (userByUsername != null) {
-        throw new ResponseStatusException(HttpStatus.CONFLICT, 
-            String.format(baseErrorMessage, "username", "is"));
+        throw USERNAME_NOT_UNIQUE.copy();
     } else if (userByName != null) {
-        throw new ResponseStatusException(HttpStatus.CONFLICT, 
-            String.format(baseErrorMessage, "name", "is"));
+        throw NAME_NOT_UNIQUE.copy();
+    }
+  }
+
+  // runs the given IN query in chunks and collects every value it reports as taken
+  private Set<String> findTaken(Collection<String> values, Function<Collection<String>, List<String>> query) {
+    List<String> valueList = new ArrayList<>(values);
+    Set<String> taken = new HashSet<>();
+    for (int from = 0; from < valueList.size(); from += IN_CLAUSE_SIZE) {
+      taken.addAll(query.apply(valueList.subList(from, Math.min(from + IN_CLAUSE_SIZE, valueList.size()))));
     }
+    return taken;
   }
 
-  private void checkUserCredentials(User userToBeAuthenticated) {
+  private User checkUserCredentials(User userToBeAuthenticated) {
   
-    User userByUsername = userRepository.findByUsername(userToBeAuthenticated.
-    
     // Check if username exists
-    getUsername());
+    User userByUsername = userRepository.findByUsername(userToBeAuthenticated.getUsername());
     if (userByUsername == null) {
-      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown Username, register now!");
+      throw UNKNOWN_USERNAME.copy();
     }
 
     // Check if this is the correct Password 
     if (!userByUsername.getPassword().equals(userToBeAuthenticated.getPassword())) {
-      throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Incorrect Password.");
+      throw INCORRECT_PASSWORD.copy();
     }
+    return userByUsername;
   }
 }
\ No newline at end of file
@@ -2,29 +2,47 @@ package ch.uzh.ifi.hase.soprafs24.controller;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.NotFoundException;
+import ch.uzh.ifi.hase.soprafs24.exceptions.TooManyRequestsException;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs24.service.RateLimiter;
+import ch.uzh.ifi.hase.soprafs24.service.UserBatch;
+import ch.uzh.ifi.hase.soprafs24.service.UserJsonCache;
 import ch.uzh.ifi.hase.soprafs24.service.UserService;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.Duration;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.BDDMockito.given;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -35,6 +53,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * This tests if the UserController works.
  */
 @WebMvcTest(UserController.class)
+@Import(UserJsonCache.class)
 public class UserControllerTest {
 
   @Autowired
@@ -43,19 +62,20 @@ public class UserControllerTest {
   @MockBean
   private UserService userService;
 
+  @MockBean
+  private RateLimiter rateLimiter;
+
   @Test
   public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
     // given
-    User user = new User();
-    user.setName("Firstname Lastname");
-    user.setUsername("firstname@lastname");
-    user.setStatus(UserStatus.OFFLINE);
+    UserProfile user = new UserProfile(1L, "Firstname Lastname", "firstname@lastname", UserStatus.OFFLINE,
+        null, null);
 
-    List<User> allUsers = Collections.singletonList(user);
+    List<UserProfile> allUsers = Collections.singletonList(user);
 
     // this mocks the UserService -> we define above what the userService should
-    // return when getUsers() is called
-    given(userService.getUsers()).willReturn(allUsers);
+    // return when getUserProfiles() is called
+    given(userService.getUserProfiles()).willReturn(allUsers);
 
     // when
     MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
@@ -65,7 +85,102 @@ public class UserControllerTest {
         .andExpect(jsonPath("$", hasSize(1)))
         .andExpect(jsonPath("$[0].name", is(user.getName())))
         .andExpect(jsonPath("$[0].username", is(user.getUsername())))
-        .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
+        .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())))
+        .andExpect(jsonPath("$[0].password", nullValue()));
+  }
+
+  @Test
+  public void givenUsers_whenGetUserPage_thenReturnPageWithCursor() throws Exception {
+    // given
+    UserProfile first = new UserProfile(1L, "First", "first", UserStatus.OFFLINE, null, null);
+    UserProfile second = new UserProfile(2L, "Second", "second", UserStatus.ONLINE, null, null);
+
+    given(userService.getUserProfilesAfter(0L, 2)).willReturn(List.of(first, second));
+    given(userService.getUserProfilesAfter(2L, 2)).willReturn(Collections.emptyList());
+
+    // then -> a full page points to its last id, an incomplete page has no cursor
+    mockMvc.perform(get("/users").param("limit", "2").param("after", "0"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.users", hasSize(2)))
+        .andExpect(jsonPath("$.users[1].username", is(second.getUsername())))
+        .andExpect(jsonPath("$.nextCursor", is(2)));
+
+    mockMvc.perform(get("/users").param("limit", "2").param("after", "2"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.users", hasSize(0)))
+        .andExpect(jsonPath("$.nextCursor", nullValue()));
+  }
+
+  @Test
+  public void givenUsers_whenSearchUsers_thenReturnRankedMatches() throws Exception {
+    // given
+    UserProfile alice = new UserProfile(1L, "Alice", "alice", UserStatus.OFFLINE, null, null);
+    UserProfile alison = new UserProfile(2L, "Bob Alison", "bob", UserStatus.ONLINE, null, null);
+
+    given(userService.searchUserProfiles("ali", 20)).willReturn(List.of(alice, alison));
+
+    // then -> the order of the service is kept
+    mockMvc.perform(get("/users/search").param("q", "ali"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(jsonPath("$[0].username", is(alice.getUsername())))
+        .andExpect(jsonPath("$[1].username", is(alison.getUsername())));
+  }
+
+  @Test
+  public void givenUsers_whenGetUsersWithFields_thenReturnOnlyThoseFields() throws Exception {
+    Map<String, Object> user = new LinkedHashMap<>();
+    user.put("id", 1L);
+    user.put("username", "firstname@lastname");
+    given(userService.getUserFields("id,username")).willReturn(List.of(user));
+
+    mockMvc.perform(get("/users").param("fields", "id,username"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(jsonPath("$[0].id", is(1)))
+        .andExpect(jsonPath("$[0].username", is("firstname@lastname")))
+        .andExpect(jsonPath("$[0].name").doesNotExist())
+        .andExpect(jsonPath("$[0].token").doesNotExist());
+  }
+
+  @Test
+  public void getUser_acceptSmile_smileBody() throws Exception {
+    UserProfile user = new UserProfile(1L, "Firstname Lastname", "firstname@lastname", UserStatus.OFFLINE,
+        null, null);
+    given(userService.getUserProfile(1L)).willReturn(user);
+
+    byte[] body = mockMvc.perform(get("/users/1").accept("application/x-jackson-smile"))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/x-jackson-smile"))
+        .andReturn().getResponse().getContentAsByteArray();
+
+    JsonNode userNode = new ObjectMapper(new SmileFactory()).readTree(body);
+    assertEquals("firstname@lastname", userNode.get("username").asText());
+    assertEquals("OFFLINE", userNode.get("status").asText());
+  }
+
+  @Test
+  public void getUser_noAccept_json() throws Exception {
+    given(userService.getUserProfile(1L)).willReturn(new UserProfile(1L, "Firstname Lastname",
+        "firstname@lastname", UserStatus.OFFLINE, null, null));
+
+    mockMvc.perform(get("/users/1"))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_JSON));
+  }
+
+  @Test
+  public void givenUsers_whenGetUsersByIds_thenReturnUsersAndMissingIds() throws Exception {
+    UserProfile user = new UserProfile(2L, "Firstname Lastname", "firstname@lastname", UserStatus.OFFLINE,
+        null, null);
+    given(userService.getUserProfilesByIds(List.of(2L, 5L)))
+        .willReturn(new UserBatch(List.of(user), List.of(5L)));
+
+    mockMvc.perform(get("/users").param("ids", "2,5"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.users", hasSize(1)))
+        .andExpect(jsonPath("$.users[0].id", is(2)))
+        .andExpect(jsonPath("$.missingIds[0]", is(5)));
   }
 
   @Test
@@ -95,7 +210,176 @@ public class UserControllerTest {
         .andExpect(jsonPath("$.id", is(user.getId().intValue())))
         .andExpect(jsonPath("$.name", is(user.getName())))
         .andExpect(jsonPath("$.username", is(user.getUsername())))
-        .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
+        .andExpect(jsonPath("$.status", is(user.getStatus().toString())))
+        .andExpect(jsonPath("$.token", nullValue()))
+        .andExpect(jsonPath("$.password", nullValue()));
+  }
+
+  @Test
+  public void loginUser_validCredentials_tokenOnlyInLoginAnswer() throws Exception {
+    User user = new User();
+    user.setId(1L);
+    user.setName("Test User");
+    user.setUsername("testUsername");
+    user.setPassword("password");
+    user.setToken("1");
+    user.setStatus(UserStatus.ONLINE);
+    given(userService.logIn(Mockito.any())).willReturn(user);
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+
+    mockMvc.perform(post("/login").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.token", is("1")))
+        .andExpect(jsonPath("$.password", nullValue()));
+  }
+
+  @Test
+  public void logoutUser_noBody() throws Exception {
+    User user = new User();
+    user.setId(1L);
+    user.setToken("1");
+    given(userService.findById(1L)).willReturn(user);
+
+    mockMvc.perform(put("/logout/1"))
+        .andExpect(status().isNoContent())
+        .andExpect(content().string(""));
+
+    Mockito.verify(userService).logOut(user);
+  }
+
+  @Test
+  public void getUser_unknownId_notFoundWithErrorBody() throws Exception {
+    given(userService.getUserETag(42L)).willThrow(new NotFoundException("User with ID 42 was not found"));
+
+    mockMvc.perform(get("/users/42"))
+        .andExpect(status().isNotFound())
+        .andExpect(jsonPath("$.status", is(404)))
+        .andExpect(jsonPath("$.message", is("User with ID 42 was not found")))
+        .andExpect(jsonPath("$.path", is("/users/42")))
+        .andExpect(jsonPath("$.timestamp").exists());
+  }
+
+  @Test
+  public void getUser_matchingETag_notModifiedWithoutLoadingUser() throws Exception {
+    given(userService.getUserETag(1L)).willReturn("\"3-ONLINE\"");
+
+    mockMvc.perform(get("/users/1").header("If-None-Match", "\"3-ONLINE\""))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string("ETag", "\"3-ONLINE\""));
+
+    Mockito.verify(userService, Mockito.never()).getUserProfile(Mockito.any());
+  }
+
+  @Test
+  public void getUser_jsonETagAcceptSmile_okWithSmileETag() throws Exception {
+    given(userService.getUserETag(1L)).willReturn("\"3-ONLINE\"");
+    given(userService.getUserProfile(1L)).willReturn(new UserProfile(1L, "Firstname Lastname", "firstname@lastname",
+        UserStatus.ONLINE, null, null));
+
+    // the JSON body cached by the client is no substitute for the Smile one
+    mockMvc.perform(get("/users/1").accept("application/x-jackson-smile").header("If-None-Match", "\"3-ONLINE\""))
+        .andExpect(status().isOk())
+        .andExpect(header().string("ETag", "\"3-ONLINE-smile\""))
+        // CORS adds Vary: Origin as well
+        .andExpect(header().stringValues("Vary", hasItem("Accept")));
+  }
+
+  @Test
+  public void getUsers_staleETag_okWithNewETag() throws Exception {
+    given(userService.getUsersETag()).willReturn("\"1-5-2\"");
+    given(userService.getUserProfiles()).willReturn(Collections.emptyList());
+
+    mockMvc.perform(get("/users").header("If-None-Match", "\"1-4-2\""))
+        .andExpect(status().isOk())
+        .andExpect(header().string("ETag", "\"1-5-2\""));
+  }
+
+  @Test
+  public void heartbeat_bearerToken_noContent() throws Exception {
+    mockMvc.perform(put("/heartbeat").header("Authorization", "Bearer 1"))
+        .andExpect(status().isNoContent());
+
+    Mockito.verify(userService).heartbeat("1");
+  }
+
+  @Test
+  public void importUsers_invalidToken_unauthorized() throws Exception {
+    given(userService.authenticate("1")).willThrow(new ResponseStatusException(HttpStatus.UNAUTHORIZED));
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setName("Test User");
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+
+    mockMvc.perform(post("/users/bulk").header("Authorization", "Bearer 1")
+            .contentType(MediaType.APPLICATION_JSON).content(asJsonString(List.of(userPostDTO))))
+        .andExpect(status().isUnauthorized());
+
+    Mockito.verify(userService, Mockito.never()).importUsers(Mockito.any());
+  }
+
+  @Test
+  public void importUsers_missingToken_unauthorized() throws Exception {
+    given(userService.authenticate(null)).willThrow(new ResponseStatusException(HttpStatus.UNAUTHORIZED));
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setName("Test User");
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+
+    // not a 400 for the missing header, the UserService rejects the missing token like an invalid one
+    mockMvc.perform(post("/users/bulk")
+            .contentType(MediaType.APPLICATION_JSON).content(asJsonString(List.of(userPostDTO))))
+        .andExpect(status().isUnauthorized());
+
+    Mockito.verify(userService, Mockito.never()).importUsers(Mockito.any());
+  }
+
+  @Test
+  public void login_rateLimited_tooManyRequests() throws Exception {
+    // given -> the address already used up its login attempts
+    Mockito.doThrow(new TooManyRequestsException(Duration.ofMillis(1500)))
+        .when(rateLimiter).checkLoginUsername("testUsername");
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+
+    // then -> rejected before the UserService is asked
+    mockMvc.perform(post("/login").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+        .andExpect(status().isTooManyRequests())
+        .andExpect(header().string("Retry-After", "2"));
+
+    Mockito.verify(userService, Mockito.never()).logIn(Mockito.any());
+  }
+
+  @Test
+  public void login_addressRateLimited_tooManyRequestsWithoutReadingBody() throws Exception {
+    Mockito.doThrow(new TooManyRequestsException(Duration.ofSeconds(1)))
+        .when(rateLimiter).checkLoginAddress(Mockito.any());
+
+    // a body far over the limit is not even looked at
+    mockMvc.perform(post("/login").contentType(MediaType.APPLICATION_JSON).content(new byte[1 << 20]))
+        .andExpect(status().isTooManyRequests());
+
+    Mockito.verify(rateLimiter, Mockito.never()).checkLoginUsername(Mockito.any());
+  }
+
+  @Test
+  public void login_oversizedBody_payloadTooLarge() throws Exception {
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("x".repeat(8192));
+
+    mockMvc.perform(post("/login").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+        .andExpect(status().isPayloadTooLarge())
+        .andExpect(jsonPath("$.path", is("/login")));
+
+    Mockito.verify(rateLimiter, Mockito.never()).checkLoginUsername(Mockito.any());
+    Mockito.verify(userService, Mockito.never()).logIn(Mockito.any());
   }
 
   /**
@@ -4,6 +4,7 @@ import java.util.Date;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import org.hibernate.Session;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
@@ -11,6 +12,7 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
 
 @DataJpaTest
 public class UserRepositoryIntegrationTest {
@@ -48,4 +50,29 @@ public class UserRepositoryIntegrationTest {
     assertEquals(found.getToken(), user.getToken());
     assertEquals(found.getStatus(), user.getStatus());
   }
+
+  @Test
+  public void findProfileById_success() {
+    // given
+    User user = new User();
+    user.setName("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.OFFLINE);
+    user.setToken("1");
+    user.setPassword("password");
+    user.setCreationDate(new Date());
+
+    entityManager.persist(user);
+    entityManager.flush();
+    entityManager.clear();
+
+    // when
+    UserProfile found = userRepository.findProfileById(user.getId()).orElseThrow();
+
+    // then -> a projection, not an entity in the persistence context
+    assertEquals(user.getId(), found.getId());
+    assertEquals(user.getUsername(), found.getUsername());
+    assertEquals(user.getStatus(), found.getStatus());
+    assertEquals(0, entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount());
+  }
 }
@@ -4,6 +4,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -14,7 +15,11 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
@@ -64,6 +69,21 @@ public class DTOMapperTest {
     assertEquals(user.getName(), userGetDTO.getName());
     assertEquals(user.getUsername(), userGetDTO.getUsername());
     assertEquals(user.getStatus(), userGetDTO.getStatus());
+    assertNull(userGetDTO.getToken());
+    assertNull(userGetDTO.getPassword());
+  }
+
+  @Test
+  public void testLoginUser_fromUser_toUserGetDTO_withToken() {
+    User user = new User();
+    user.setUsername("firstname@lastname");
+    user.setPassword("password");
+    user.setToken("1");
+
+    UserGetDTO userGetDTO = DTOMapper.INSTANCE.convertEntityToLoginUserGetDTO(user);
+
+    assertEquals(user.getToken(), userGetDTO.getToken());
+    assertNull(userGetDTO.getPassword());
   }
 
   // Test if a duplicate Name will throw an exception
@@ -91,10 +111,11 @@ public class DTOMapperTest {
   public void testFindById_userNotFound() {
       long userId = 1L;
   
-      when(userService.findById(userId)).thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "User with ID " + userId + " was not found"));
+      when(userService.getUserETag(userId)).thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "User with ID " + userId + " was not found"));
   
       Exception exception = assertThrows(ResponseStatusException.class, () -> {
-          userController.getUserbyUserID(userId);
+          userController.getUserbyUserID(userId, new ServletWebRequest(new MockHttpServletRequest()),
+              new MockHttpServletResponse());
       });
   
       assertEquals(HttpStatus.NOT_FOUND, ((ResponseStatusException) exception).getStatus());
@@ -108,9 +129,17 @@ public class DTOMapperTest {
       UserPutDTO userPutDTO = new UserPutDTO();
       userPutDTO.setUsername("updatedUsername");
 
-      assertDoesNotThrow(() -> userController.editUser(userPutDTO, 1L));
+      User editedUser = new User();
+      editedUser.setId(1L);
+      MockHttpServletResponse response = new MockHttpServletResponse();
+
+      when(userService.editUserbyUserID(any(), any())).thenReturn(editedUser);
+      when(userService.getUserETag(editedUser)).thenReturn("\"1-ONLINE\"");
+
+      assertDoesNotThrow(() -> userController.editUser(userPutDTO, 1L, null, response));
 
-      verify(userService, times(1)).editUserbyUserID(any());
+      verify(userService, times(1)).editUserbyUserID(any(), any());
+      assertEquals("\"1-ONLINE\"", response.getHeader(HttpHeaders.ETAG));
   }
 
 
@@ -120,10 +149,10 @@ public class DTOMapperTest {
     UserPutDTO userPutDTO = new UserPutDTO();
     userPutDTO.setUsername("updatedUsername");
 
-    when(userService.editUserbyUserID(any())).thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid id: 2"));
+    when(userService.editUserbyUserID(any(), any())).thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid id: 2"));
 
     Exception exception = assertThrows(ResponseStatusException.class, () -> {
-      userController.editUser(userPutDTO, 2L);
+      userController.editUser(userPutDTO, 2L, null, new MockHttpServletResponse());
     });
 
     assertEquals(HttpStatus.NOT_FOUND, ((ResponseStatusException) exception).getStatus());
@@ -0,0 +1,174 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class BatchLoaderTest {
+
+  private final List<List<Long>> batches = new CopyOnWriteArrayList<>();
+
+  @Test
+  public void load_unknownKey_returnsNull() {
+    BatchLoader<Long, String> loader = new BatchLoader<>(this::names, 10);
+
+    assertEquals("user1", loader.load(1L));
+    assertNull(loader.load(-1L));
+  }
+
+  @Test
+  public void load_concurrentLookups_shareBatches() throws Exception {
+    CountDownLatch firstBatchStarted = new CountDownLatch(1);
+    CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+    BatchLoader<Long, String> loader = new BatchLoader<>(ids -> {
+      firstBatchStarted.countDown();
+      await(releaseFirstBatch);
+      return names(ids);
+    }, 10);
+
+    ExecutorService executor = Executors.newFixedThreadPool(6);
+    try {
+      Future<String> first = executor.submit(() -> loader.load(1L));
+      assertTrue(firstBatchStarted.await(5, TimeUnit.SECONDS));
+
+      // these queue up while the first batch is still running
+      List<Future<String>> others = new ArrayList<>();
+      for (long id = 2; id <= 6; id++) {
+        long key = id;
+        others.add(executor.submit(() -> loader.load(key)));
+      }
+      Thread.sleep(200);
+      releaseFirstBatch.countDown();
+
+      assertEquals("user1", first.get(5, TimeUnit.SECONDS));
+      for (int i = 0; i < others.size(); i++) {
+        assertEquals("user" + (i + 2), others.get(i).get(5, TimeUnit.SECONDS));
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    // one batch for the first lookup, the five others shared the next one
+    assertEquals(2, batches.size());
+    assertEquals(5, batches.get(1).size());
+  }
+
+  @Test
+  public void load_dispatcherResolved_returnsWithoutRunningLaterBatches() throws Exception {
+    CountDownLatch firstBatchStarted = new CountDownLatch(1);
+    CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+    CountDownLatch releaseSecondBatch = new CountDownLatch(1);
+    BatchLoader<Long, String> loader = new BatchLoader<>(ids -> {
+      if (ids.contains(1L)) {
+        firstBatchStarted.countDown();
+        await(releaseFirstBatch);
+      }
+      else {
+        await(releaseSecondBatch);
+      }
+      return names(ids);
+    }, 10);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> first = executor.submit(() -> loader.load(1L));
+      assertTrue(firstBatchStarted.await(5, TimeUnit.SECONDS));
+      Future<String> second = executor.submit(() -> loader.load(2L));
+      Thread.sleep(200);
+      releaseFirstBatch.countDown();
+
+      // the second batch is run by the caller who is waiting for it, not by the first dispatcher
+      assertEquals("user1", first.get(5, TimeUnit.SECONDS));
+      releaseSecondBatch.countDown();
+      assertEquals("user2", second.get(5, TimeUnit.SECONDS));
+    }
+    finally {
+      releaseSecondBatch.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void load_batchFunctionThrowsError_everyWaiterFails() throws Exception {
+    CountDownLatch firstBatchStarted = new CountDownLatch(1);
+    CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+    BatchLoader<Long, String> loader = new BatchLoader<>(ids -> {
+      if (ids.contains(1L)) {
+        firstBatchStarted.countDown();
+        await(releaseFirstBatch);
+        return names(ids);
+      }
+      throw new StackOverflowError();
+    }, 10);
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      Future<String> first = executor.submit(() -> loader.load(1L));
+      assertTrue(firstBatchStarted.await(5, TimeUnit.SECONDS));
+      Future<String> second = executor.submit(() -> loader.load(2L));
+      Future<String> third = executor.submit(() -> loader.load(3L));
+      Thread.sleep(200);
+      releaseFirstBatch.countDown();
+
+      assertEquals("user1", first.get(5, TimeUnit.SECONDS));
+      for (Future<String> failed : List.of(second, third)) {
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof StackOverflowError);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    // the loader is still usable afterwards
+    assertEquals("user1", loader.load(1L));
+  }
+
+  @Test
+  public void loadMany_largeInput_chunked() {
+    BatchLoader<Long, String> loader = new BatchLoader<>(this::names, 2);
+
+    Map<Long, String> values = loader.loadMany(List.of(1L, 2L, 3L, -1L, 5L));
+
+    assertEquals(3, batches.size());
+    assertEquals(4, values.size());
+    assertEquals("user5", values.get(5L));
+  }
+
+  private Map<Long, String> names(Collection<Long> ids) {
+    batches.add(new ArrayList<>(ids));
+    Map<Long, String> names = new HashMap<>();
+    for (Long id : ids) {
+      if (id > 0) {
+        names.put(id, "user" + id);
+      }
+    }
+    return names;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
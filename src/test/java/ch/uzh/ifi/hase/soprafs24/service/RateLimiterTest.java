@@ -0,0 +1,93 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import ch.uzh.ifi.hase.soprafs24.exceptions.TooManyRequestsException;
+
+public class RateLimiterTest {
+
+  private final AtomicLong now = new AtomicLong();
+
+  // 3 registrations per minute: a burst of 3, then one every 20 seconds
+  private final RateLimiter rateLimiter = new RateLimiter("30/1m", "3/1m", "3/1m", "1/1m", 1000, now::get);
+
+  @Test
+  public void checkRegistration_burstUsedUp_rejected() {
+    for (int i = 0; i < 3; i++) {
+      rateLimiter.checkRegistration("10.0.0.1");
+    }
+
+    assertThrows(TooManyRequestsException.class, () -> rateLimiter.checkRegistration("10.0.0.1"));
+  }
+
+  @Test
+  public void checkRegistration_burstUsedUp_retryAfterNextRefill() {
+    for (int i = 0; i < 3; i++) {
+      rateLimiter.checkRegistration("10.0.0.1");
+    }
+    advance(5);
+
+    TooManyRequestsException exception = assertThrows(TooManyRequestsException.class,
+        () -> rateLimiter.checkRegistration("10.0.0.1"));
+
+    assertEquals(15, exception.getRetryAfterSeconds());
+  }
+
+  @Test
+  public void checkRegistration_refilledEvenly() {
+    for (int i = 0; i < 3; i++) {
+      rateLimiter.checkRegistration("10.0.0.1");
+    }
+
+    // one request per emission interval, not the whole burst again
+    advance(20);
+    rateLimiter.checkRegistration("10.0.0.1");
+    assertThrows(TooManyRequestsException.class, () -> rateLimiter.checkRegistration("10.0.0.1"));
+
+    // a full period later the whole burst is available again
+    advance(60);
+    for (int i = 0; i < 3; i++) {
+      rateLimiter.checkRegistration("10.0.0.1");
+    }
+  }
+
+  @Test
+  public void checkRegistration_otherAddress_ownBucket() {
+    for (int i = 0; i < 3; i++) {
+      rateLimiter.checkRegistration("10.0.0.1");
+    }
+
+    rateLimiter.checkRegistration("10.0.0.2");
+  }
+
+  @Test
+  public void checkLoginUsername_usedUpFromManyAddresses_rejected() {
+    for (int i = 0; i < 3; i++) {
+      rateLimiter.checkLoginAddress("10.0.0." + i);
+      rateLimiter.checkLoginUsername("testUsername");
+    }
+
+    rateLimiter.checkLoginAddress("10.0.0.9");
+    assertThrows(TooManyRequestsException.class, () -> rateLimiter.checkLoginUsername("testUsername"));
+  }
+
+  @Test
+  public void checkImport_secondImport_rejected() {
+    rateLimiter.checkImport("10.0.0.1");
+
+    TooManyRequestsException exception = assertThrows(TooManyRequestsException.class,
+        () -> rateLimiter.checkImport("10.0.0.1"));
+
+    assertEquals(60, exception.getRetryAfterSeconds());
+  }
+
+  private void advance(long seconds) {
+    now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+}
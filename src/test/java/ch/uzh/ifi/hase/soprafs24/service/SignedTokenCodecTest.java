@@ -0,0 +1,51 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+public class SignedTokenCodecTest {
+
+  private static final String SECRET = Base64.getEncoder().encodeToString(new byte[32]);
+
+  private final SignedTokenCodec codec = new SignedTokenCodec("signed", SECRET, Duration.ofHours(1));
+
+  @Test
+  public void verify_issuedToken_returnsUserId() {
+    String token = codec.issue(42L);
+
+    assertEquals(42L, codec.verify(token));
+    // any node with the same secret accepts the token
+    assertEquals(42L, new SignedTokenCodec("signed", SECRET, Duration.ofHours(1)).verify(token));
+  }
+
+  @Test
+  public void verify_tamperedOrForeignToken_returnsNull() {
+    String token = codec.issue(42L);
+    String otherSecret = Base64.getEncoder().encodeToString(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14,
+        15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32 });
+
+    String forged = codec.issue(7L).substring(0, token.indexOf('.')) + token.substring(token.indexOf('.'));
+
+    assertNull(codec.verify(forged));
+    assertNull(codec.verify("not-a-token"));
+    assertNull(new SignedTokenCodec("signed", otherSecret, Duration.ofHours(1)).verify(token));
+  }
+
+  @Test
+  public void verify_afterRevokeOrExpiry_returnsNull() {
+    String token = codec.issue(42L);
+    codec.revoke(42L);
+    String newToken = codec.issue(42L);
+
+    assertNull(codec.verify(token));
+    assertEquals(42L, codec.verify(newToken));
+
+    SignedTokenCodec expiredCodec = new SignedTokenCodec("signed", SECRET, Duration.ofMillis(-1));
+    assertNull(expiredCodec.verify(expiredCodec.issue(42L)));
+  }
+}
@@ -0,0 +1,52 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
+
+public class UserJsonCacheTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final UserJsonCache userJsonCache = new UserJsonCache(objectMapper, 1024 * 1024);
+
+  @Test
+  public void get_sameVersion_returnsCachedJson() throws Exception {
+    UserProfile userProfile = profile(3L, UserStatus.OFFLINE);
+
+    byte[] json = userJsonCache.get(userProfile, null);
+
+    assertSame(json, userJsonCache.get(profile(3L, UserStatus.OFFLINE), null));
+    JsonNode userNode = objectMapper.readTree(json);
+    assertEquals("username", userNode.get("username").asText());
+    assertEquals("OFFLINE", userNode.get("status").asText());
+  }
+
+  @Test
+  public void get_newVersionOrPresence_serializesAgain() throws Exception {
+    byte[] json = userJsonCache.get(profile(3L, UserStatus.OFFLINE), null);
+
+    // a write moved the change version
+    byte[] edited = userJsonCache.get(profile(4L, UserStatus.OFFLINE), null);
+    assertNotSame(json, edited);
+
+    // the PresenceRegistry knows about a login that is not stored yet
+    byte[] online = userJsonCache.get(profile(4L, UserStatus.OFFLINE), UserStatus.ONLINE);
+    assertEquals("ONLINE", objectMapper.readTree(online).get("status").asText());
+
+    userJsonCache.invalidate(1L);
+    assertNotSame(online, userJsonCache.get(profile(4L, UserStatus.OFFLINE), UserStatus.ONLINE));
+  }
+
+  private static UserProfile profile(long changeVersion, UserStatus status) {
+    return new UserProfile(1L, "name", "username", status, null, null, changeVersion);
+  }
+}
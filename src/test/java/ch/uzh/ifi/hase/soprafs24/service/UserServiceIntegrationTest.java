@@ -1,10 +1,28 @@
 package ch.uzh.ifi.hase.soprafs24.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,9 +32,17 @@ import org.springframework.http.HttpStatus;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserImportStatus;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
 
 
 /**
@@ -25,7 +51,10 @@ import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
  * @see UserService
  */
 @WebAppConfiguration
-@SpringBootTest
+@SpringBootTest(properties = {
+    "spring.jpa.properties.hibernate.generate_statistics=true",
+    "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "ch.uzh.ifi.hase.soprafs24.service.UserServiceIntegrationTest$BlockingStatementInspector" })
 public class UserServiceIntegrationTest {
 
   @Qualifier("userRepository")
@@ -35,6 +64,18 @@ public class UserServiceIntegrationTest {
   @Autowired
   private UserService userService;
 
+  @Autowired
+  private PresenceRegistry presenceRegistry;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private SessionExpiry sessionExpiry;
+
+  @Autowired
+  private DataSource dataSource;
+
   @BeforeEach
   public void setup() {
     userRepository.deleteAll();
@@ -86,6 +127,463 @@ public class UserServiceIntegrationTest {
     assertTrue(exception.getReason().contains("not unique"), 
         "Exception message should indicate duplicate username");
   }
-  
 
+  @Test
+  public void authenticate_loggedInToken_untilLogout() {
+    User testUser = new User();
+    testUser.setName("testName");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    User createdUser = userService.createUser(testUser);
+
+    User credentials = new User();
+    credentials.setUsername("testUsername");
+    credentials.setPassword("password");
+    User loggedInUser = userService.logIn(credentials);
+
+    assertEquals(createdUser.getId(), userService.authenticate(loggedInUser.getToken()));
+
+    userService.logOut(loggedInUser);
+
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.authenticate(loggedInUser.getToken()));
+    assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+  }
+
+  @Test
+  public void logOut_statusWrittenBehind_onFlush() {
+    User testUser = new User();
+    testUser.setName("testName");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    User createdUser = userService.createUser(testUser);
+
+    User credentials = new User();
+    credentials.setUsername("testUsername");
+    credentials.setPassword("password");
+    User loggedInUser = userService.logIn(credentials);
+    assertEquals(UserStatus.ONLINE, userRepository.findByUsername("testUsername").getStatus());
+
+    userService.logOut(loggedInUser);
+
+    // the registry answers right away, the table catches up with the next flush
+    assertEquals(UserStatus.OFFLINE, userService.getPresence(createdUser.getId()));
+
+    presenceRegistry.flush();
+
+    assertEquals(UserStatus.OFFLINE, userRepository.findByUsername("testUsername").getStatus());
+  }
+
+  @Test
+  public void flush_changeOfPreviousSession_doesNotOverwriteNewLogin() {
+    User testUser = new User();
+    testUser.setName("testName");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    User createdUser = userService.createUser(testUser);
+
+    User credentials = new User();
+    credentials.setUsername("testUsername");
+    credentials.setPassword("password");
+    String previousToken = userService.logIn(credentials).getToken();
+    userService.logIn(credentials);
+
+    // a logout of the first session that is only written after the second login
+    presenceRegistry.setStatus(createdUser.getId(), UserStatus.OFFLINE, previousToken);
+    presenceRegistry.flush();
+
+    assertEquals(UserStatus.ONLINE, userRepository.findByUsername("testUsername").getStatus());
+  }
+
+  @Test
+  public void importUsers_mixedRows_reportedPerRow() {
+    User existing = new User();
+    existing.setName("existingName");
+    existing.setUsername("existingUsername");
+    existing.setPassword("password");
+    userService.createUser(existing);
+
+    List<User> rows = new ArrayList<>();
+    for (int i = 0; i < 120; i++) {
+      User row = new User();
+      row.setName("name" + i);
+      row.setUsername("username" + i);
+      row.setPassword("password");
+      rows.add(row);
+    }
+    rows.get(3).setUsername("existingUsername");
+    rows.get(7).setUsername("username6");
+    rows.get(9).setPassword(null);
+
+    List<UserImportResult> results = userService.importUsers(rows);
+
+    assertEquals(120, results.size());
+    assertEquals(UserImportStatus.CONFLICT, results.get(3).getStatus());
+    assertEquals(UserImportStatus.CONFLICT, results.get(7).getStatus());
+    assertEquals(UserImportStatus.INVALID, results.get(9).getStatus());
+    assertEquals(UserImportStatus.CREATED, results.get(119).getStatus());
+    assertNotNull(results.get(119).getId());
+    assertEquals(118, userRepository.count());
+  }
+
+  @Test
+  public void logIn_oneSelectAndOneUpdate() {
+    User testUser = new User();
+    testUser.setName("testName");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    userService.createUser(testUser);
+
+    User credentials = new User();
+    credentials.setUsername("testUsername");
+    credentials.setPassword("password");
+
+    // nothing may be left for a scheduled flush to write while we count
+    presenceRegistry.flush();
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+
+    User loggedInUser = userService.logIn(credentials);
+    long statements = statistics.getPrepareStatementCount();
+
+    assertEquals(2, statements, "Login must cost one SELECT and one UPDATE");
+    assertEquals(UserStatus.ONLINE, loggedInUser.getStatus());
+    assertEquals(loggedInUser.getToken(), userRepository.findByUsername("testUsername").getToken());
+  }
+
+  @Test
+  public void patchUserbyUserID_cachedUsers_oneUpdateAndOnlyPatchedUserEvicted() {
+    User first = new User();
+    first.setName("firstName");
+    first.setUsername("firstUsername");
+    first.setPassword("password");
+    userService.createUser(first);
+
+    User second = new User();
+    second.setName("secondName");
+    second.setUsername("secondUsername");
+    second.setPassword("password");
+    userService.createUser(second);
+
+    presenceRegistry.flush();
+    userService.findById(first.getId());
+    userService.findById(second.getId());
+    assertNotNull(userRepository.findByUsername("firstUsername"));
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+
+    User patch = new User();
+    patch.setId(first.getId());
+    patch.setUsername("firstRenamed");
+    userService.patchUserbyUserID(patch);
+
+    assertEquals(1, statistics.getPrepareStatementCount(), "A PATCH must only cost the UPDATE");
+
+    // only the patched user was evicted, not the whole User region
+    statistics.clear();
+    userService.findById(second.getId());
+    assertEquals(0, statistics.getPrepareStatementCount(), "Other users must still be served from the cache");
+
+    // the patched user and the cached queries over USER see the new username
+    assertEquals("firstRenamed", userService.findById(first.getId()).getUsername());
+    assertNull(userRepository.findByUsername("firstUsername"));
+  }
+
+  @Test
+  public void findById_secondRead_servedFromCache() {
+    User testUser = new User();
+    testUser.setName("testName");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    User createdUser = userService.createUser(testUser);
+
+    presenceRegistry.flush();
+    userService.findById(createdUser.getId());
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+
+    User foundUser = userService.findById(createdUser.getId());
+
+    assertEquals(0, statistics.getPrepareStatementCount(), "Second read must not hit the database");
+    assertEquals(createdUser.getUsername(), foundUser.getUsername());
+  }
+
+  @Test
+  public void searchUserProfiles_prefix_rankedAndBounded() {
+    String[][] users = { { "Bob Alison", "bob" }, { "Alice", "alice" }, { "Alina", "alinaX" }, { "Carl", "ali" } };
+    for (String[] nameAndUsername : users) {
+      User user = new User();
+      user.setName(nameAndUsername[0]);
+      user.setUsername(nameAndUsername[1]);
+      user.setPassword("password");
+      userService.createUser(user);
+    }
+
+    List<UserProfile> hits = userService.searchUserProfiles("ALI", 3);
+
+    // exact username first, then username prefixes (shorter first), name-word matches last
+    assertEquals(3, hits.size());
+    assertEquals("ali", hits.get(0).getUsername());
+    assertEquals("alice", hits.get(1).getUsername());
+    assertEquals("alinaX", hits.get(2).getUsername());
+    assertTrue(userService.searchUserProfiles("zzz", 3).isEmpty());
+  }
+
+  @Test
+  public void sessionExpiry_noHeartbeat_userOffline() {
+    User testUser = new User();
+    testUser.setName("testName");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    User createdUser = userService.createUser(testUser);
+
+    User credentials = new User();
+    credentials.setUsername("testUsername");
+    credentials.setPassword("password");
+    User loggedInUser = userService.logIn(credentials);
+    userService.heartbeat(loggedInUser.getToken());
+
+    // the wheel is turned by hand past the default ttl of five minutes
+    sessionExpiry.tick(System.currentTimeMillis() + Duration.ofMinutes(6).toMillis());
+
+    assertEquals(UserStatus.OFFLINE, userService.getPresence(createdUser.getId()));
+    assertEquals(UserStatus.OFFLINE, userRepository.findByUsername("testUsername").getStatus());
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.heartbeat(loggedInUser.getToken()));
+    assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+  }
+
+  @Test
+  public void getUserChanges_sinceCursor_onlyLaterWrites() {
+    User first = new User();
+    first.setName("firstName");
+    first.setUsername("firstUsername");
+    first.setPassword("password");
+    userService.createUser(first);
+
+    String cursor = userService.getUserChanges(null, 500).getCursor();
+
+    User second = new User();
+    second.setName("secondName");
+    second.setUsername("secondUsername");
+    second.setPassword("password");
+    userService.createUser(second);
+
+    User edit = new User();
+    edit.setId(first.getId());
+    edit.setUsername("firstRenamed");
+    userService.editUserbyUserID(edit);
+
+    // both writes after the cursor, in write order, then nothing until the next write
+    UserChanges changes = userService.getUserChanges(cursor, 500);
+    assertEquals(2, changes.getUsers().size());
+    assertEquals("secondUsername", changes.getUsers().get(0).getUsername());
+    assertEquals("firstRenamed", changes.getUsers().get(1).getUsername());
+    assertTrue(userService.getUserChanges(changes.getCursor(), 500).getUsers().isEmpty());
+
+    // a page that ends in the middle continues right after its last user
+    UserChanges firstPage = userService.getUserChanges(cursor, 1);
+    assertTrue(firstPage.isHasMore());
+    assertEquals("firstRenamed", userService.getUserChanges(firstPage.getCursor(), 1).getUsers().get(0).getUsername());
+  }
+
+  @Test
+  public void editUserbyUserID_staleIfMatch_preconditionFailed() {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername("testUsername");
+    user.setPassword("password");
+    userService.createUser(user);
+
+    String eTag = userService.getUserETag(user.getId());
+    String usersETag = userService.getUsersETag();
+
+    User edit = new User();
+    edit.setId(user.getId());
+    edit.setUsername("renamed");
+    userService.editUserbyUserID(edit, eTag);
+
+    // the edit changed both ETags, so a second edit based on the old one is rejected
+    assertNotEquals(eTag, userService.getUserETag(user.getId()));
+    assertNotEquals(usersETag, userService.getUsersETag());
+
+    User staleEdit = new User();
+    staleEdit.setId(user.getId());
+    staleEdit.setUsername("renamedAgain");
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.editUserbyUserID(staleEdit, eTag));
+    assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatus());
+    assertEquals("renamed", userRepository.findById(user.getId()).get().getUsername());
+  }
+
+  @Test
+  public void getUserFields_selectedFieldsOnly() {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername("testUsername");
+    user.setPassword("password");
+    userService.createUser(user);
+
+    List<Map<String, Object>> rows = userService.getUserFields("username, status");
+    assertEquals(1, rows.size());
+    assertEquals(List.of("id", "username", "status"), new ArrayList<>(rows.get(0).keySet()));
+    assertEquals("testUsername", rows.get(0).get("username"));
+
+    Map<String, Object> row = userService.getUserFields(user.getId(), "name");
+    assertEquals(Map.of("id", user.getId(), "name", "testName"), row);
+
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.getUserFields("username,password"));
+    assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+  }
+
+  @Test
+  public void patchUserbyUserID_updatesOnlyGivenFields() {
+    User first = new User();
+    first.setName("firstName");
+    first.setUsername("firstUsername");
+    first.setPassword("password");
+    userService.createUser(first);
+
+    User second = new User();
+    second.setName("secondName");
+    second.setUsername("secondUsername");
+    second.setPassword("password");
+    userService.createUser(second);
+
+    String eTag = userService.getUserETag(first.getId());
+
+    User patch = new User();
+    patch.setId(first.getId());
+    patch.setUsername("firstRenamed");
+    userService.patchUserbyUserID(patch);
+
+    User patched = userRepository.findById(first.getId()).get();
+    assertEquals("firstRenamed", patched.getUsername());
+    assertEquals("firstName", patched.getName());
+    assertNotEquals(eTag, userService.getUserETag(first.getId()));
+    assertEquals(first.getId(), userService.searchUserProfiles("firstRenamed", 10).get(0).getId());
+
+    // a taken username is reported by the unique constraint, an unknown id by the row count
+    User taken = new User();
+    taken.setId(first.getId());
+    taken.setUsername("secondUsername");
+    ResponseStatusException conflict = assertThrows(ResponseStatusException.class,
+        () -> userService.patchUserbyUserID(taken));
+    assertEquals(HttpStatus.CONFLICT, conflict.getStatus());
+
+    User unknown = new User();
+    unknown.setId(second.getId() + 1000);
+    unknown.setUsername("unknown");
+    ResponseStatusException notFound = assertThrows(ResponseStatusException.class,
+        () -> userService.patchUserbyUserID(unknown));
+    assertEquals(HttpStatus.NOT_FOUND, notFound.getStatus());
+  }
+
+  @Test
+  public void getUserProfilesByIds_requestOrderAndMissingIds() {
+    List<Long> ids = new ArrayList<>();
+    for (String username : new String[] { "first", "second", "third" }) {
+      User user = new User();
+      user.setName(username + "Name");
+      user.setUsername(username);
+      user.setPassword("password");
+      ids.add(userService.createUser(user).getId());
+    }
+    long unknownId = ids.get(2) + 1000;
+
+    UserBatch batch = userService.getUserProfilesByIds(List.of(ids.get(2), unknownId, ids.get(0), ids.get(2)));
+
+    assertEquals(2, batch.getUsers().size());
+    assertEquals("third", batch.getUsers().get(0).getUsername());
+    assertEquals("first", batch.getUsers().get(1).getUsername());
+    assertEquals(List.of(unknownId), batch.getMissingIds());
+  }
+
+  @Test
+  public void getUserProfile_concurrentReads_waitersHoldNoConnection() throws Exception {
+    User testUser = new User();
+    testUser.setName("testName");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    Long id = userService.createUser(testUser).getId();
+    presenceRegistry.flush();
+
+    HikariPoolMXBean pool = dataSource.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+    Counter coalesced = Metrics.globalRegistry.find("user.single-flight")
+        .tags("name", "profile", "result", "coalesced").counter();
+    double coalescedBefore = coalesced.count();
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+
+    // the first read is held in its query, the others join it
+    BlockingStatementInspector.block("where user0_.id=");
+    ExecutorService executor = Executors.newFixedThreadPool(5);
+    try {
+      List<Future<UserProfile>> reads = new ArrayList<>();
+      reads.add(executor.submit(() -> userService.getUserProfile(id)));
+      assertTrue(BlockingStatementInspector.blocked.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 4; i++) {
+        reads.add(executor.submit(() -> userService.getUserProfile(id)));
+      }
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (coalesced.count() < coalescedBefore + 4 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(coalescedBefore + 4, coalesced.count());
+
+      // only the read that runs the query has a connection, the four waiting for it have none
+      assertTrue(pool.getActiveConnections() <= 1, "Active connections: " + pool.getActiveConnections());
+
+      BlockingStatementInspector.release();
+      for (Future<UserProfile> read : reads) {
+        assertEquals("testUsername", read.get(5, TimeUnit.SECONDS).getUsername());
+      }
+    }
+    finally {
+      BlockingStatementInspector.release();
+      executor.shutdownNow();
+    }
+    assertEquals(1, statistics.getPrepareStatementCount(), "Five identical reads must share one query");
+  }
+
+  /**
+   * Holds the first statement that contains the armed SQL fragment until it
+   * is released, so that a test can look at what happens meanwhile.
+   */
+  public static class BlockingStatementInspector implements StatementInspector {
+
+    private static volatile String fragment;
+
+    private static volatile CountDownLatch blocked = new CountDownLatch(1);
+
+    private static volatile CountDownLatch released = new CountDownLatch(0);
+
+    static void block(String sqlFragment) {
+      blocked = new CountDownLatch(1);
+      released = new CountDownLatch(1);
+      fragment = sqlFragment;
+    }
+
+    static void release() {
+      fragment = null;
+      released.countDown();
+    }
+
+    @Override
+    public String inspect(String sql) {
+      String armed = fragment;
+      if (armed != null && sql.contains(armed)) {
+        fragment = null;
+        blocked.countDown();
+        try {
+          released.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return sql;
+    }
+  }
 }
@@ -3,23 +3,69 @@ package ch.uzh.ifi.hase.soprafs24.service;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
+import ch.uzh.ifi.hase.soprafs24.constant.UserEventType;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.projection.UserProfile;
 
 public class UserServiceTest {
 
   @Mock
   private UserRepository userRepository;
 
+  @Mock
+  private TokenIndex tokenIndex;
+
+  @Mock
+  private PresenceRegistry presenceRegistry;
+
+  @Mock
+  private UniquenessFilter uniquenessFilter;
+
+  @Mock
+  private UserSearchIndex userSearchIndex;
+
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  @Mock
+  private SessionExpiry sessionExpiry;
+
+  @Spy
+  private TokenGenerator tokenGenerator = new SecureTokenGenerator(32);
+
+  @Mock
+  private SignedTokenCodec signedTokenCodec;
+
+  @Mock
+  private ChangeVersionClock changeVersionClock;
+
+  @Mock
+  private UserJsonCache userJsonCache;
+
   @InjectMocks
   private UserService userService;
 
@@ -39,6 +85,9 @@ public class UserServiceTest {
     // when -> any object is being save in the userRepository -> return the dummy
     // testUser
     Mockito.when(userRepository.save(Mockito.any())).thenReturn(testUser);
+
+    // the filter cannot rule anything out -> the uniqueness queries always run
+    Mockito.when(uniquenessFilter.mightBeTaken(Mockito.any(), Mockito.any())).thenReturn(true);
   }
 
   @Test
@@ -54,7 +103,32 @@ public class UserServiceTest {
     assertEquals(testUser.getName(), createdUser.getName());
     assertEquals(testUser.getUsername(), createdUser.getUsername());
     assertNotNull(createdUser.getToken());
+    assertTrue(createdUser.getToken().matches("[A-Za-z0-9_-]{43}"), "Expected 32 random bytes as URL-safe Base64");
     assertEquals(UserStatus.OFFLINE, createdUser.getStatus());
+
+    // subscribers of GET /users/events are told about the new user
+    Mockito.verify(eventPublisher).publishEvent(Mockito.<Object>argThat(event ->
+        event instanceof UserEvent && ((UserEvent) event).getType() == UserEventType.CREATED));
+  }
+
+  @Test
+  public void importUsers_manyRows_oneSummaryEvent() {
+    List<User> rows = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      User row = new User();
+      row.setName("name" + i);
+      row.setUsername("username" + i);
+      row.setPassword("password");
+      rows.add(row);
+    }
+
+    userService.importUsers(rows);
+
+    // subscribers of GET /users/events are told once, not once per row
+    Mockito.verify(eventPublisher, Mockito.times(1)).publishEvent(Mockito.<Object>any());
+    Mockito.verify(eventPublisher).publishEvent(Mockito.<Object>argThat(event ->
+        event instanceof UserEvent && ((UserEvent) event).getType() == UserEventType.IMPORTED
+            && ((UserEvent) event).getCount() == 3));
   }
 
   @Test
@@ -85,4 +159,59 @@ public class UserServiceTest {
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
   }
 
+  @Test
+  public void authenticate_missingToken_unauthorized() {
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.authenticate(null));
+
+    assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+  }
+
+  @Test
+  public void createUser_definitelyNewNames_skipsUniquenessQueries() {
+    Mockito.when(uniquenessFilter.mightBeTaken(Mockito.any(), Mockito.any())).thenReturn(false);
+
+    userService.createUser(testUser);
+
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+    Mockito.verify(userRepository, Mockito.never()).findByName(Mockito.any());
+    Mockito.verify(uniquenessFilter).add(testUser);
+  }
+
+  @Test
+  public void getUserProfile_concurrentReads_shareOneQuery() throws Exception {
+    UserProfile userProfile = new UserProfile(1L, "testName", "testUsername", UserStatus.ONLINE, null, null);
+    CountDownLatch queryStarted = new CountDownLatch(1);
+    CountDownLatch releaseQuery = new CountDownLatch(1);
+    Mockito.when(userRepository.findProfileById(1L)).thenAnswer(invocation -> {
+      queryStarted.countDown();
+      releaseQuery.await(5, TimeUnit.SECONDS);
+      return Optional.of(userProfile);
+    });
+
+    int readers = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(readers);
+    try {
+      List<Future<UserProfile>> reads = new ArrayList<>();
+      reads.add(executor.submit(() -> userService.getUserProfile(1L)));
+      assertTrue(queryStarted.await(5, TimeUnit.SECONDS));
+
+      // these arrive while the first query is still running
+      for (int i = 1; i < readers; i++) {
+        reads.add(executor.submit(() -> userService.getUserProfile(1L)));
+      }
+      Thread.sleep(200);
+      releaseQuery.countDown();
+
+      for (Future<UserProfile> read : reads) {
+        assertEquals(userProfile, read.get(5, TimeUnit.SECONDS));
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    Mockito.verify(userRepository, Mockito.times(1)).findProfileById(1L);
+    Mockito.verify(userRepository, Mockito.never()).findProfilesByIdIn(Mockito.any());
+  }
 }